@@ -0,0 +1,54 @@
+package com.hmdp.interceptor;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import com.hmdp.dto.UserDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录用户在redis hash和UserDTO之间的转换
+ * 对比BeanUtil的反射实现和RefreshTokenInterceptor中的直接赋值
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserMapBenchmark {
+
+    private Map<Object, Object> userMap;
+    private UserDTO user;
+
+    @Setup
+    public void setup() {
+        userMap = new HashMap<>();
+        userMap.put("id", "1010");
+        userMap.put("nickName", "user_8f3kd9s2a1");
+        userMap.put("icon", "/imgs/icons/kkjtbcr.jpg");
+        user = RefreshTokenInterceptor.toUserDTO(userMap);
+    }
+
+    @Benchmark
+    public UserDTO fillBeanWithMap() {
+        return BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+    }
+
+    @Benchmark
+    public UserDTO toUserDTO() {
+        return RefreshTokenInterceptor.toUserDTO(userMap);
+    }
+
+    @Benchmark
+    public Map<String, Object> beanToMap() {
+        // 与登录时写入redis的转换相同
+        return BeanUtil.beanToMap(user, new HashMap<>(),
+                CopyOptions.create()
+                        .setIgnoreNullValue(true)
+                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
+    }
+}
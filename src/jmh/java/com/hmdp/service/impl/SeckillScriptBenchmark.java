@@ -0,0 +1,54 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.utils.BenchmarkRedis;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 秒杀lua脚本的吞吐和延迟，lua只能在真实redis中执行，需要 -Dredis.host
+ * 每次调用使用新的用户id，都会走完整的扣库存、记录用户、写消息队列的路径
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeckillScriptBenchmark {
+
+    private static final Long VOUCHER_ID = 900000001L;
+    private static final int PARTITIONS = 8;
+    private static final List<String> KEYS = VoucherOrderServiceImpl.seckillKeys(VOUCHER_ID, (int) (VOUCHER_ID % PARTITIONS));
+
+    private final AtomicLong userId = new AtomicLong();
+    private final AtomicLong orderId = new AtomicLong();
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Setup
+    public void setup() {
+        stringRedisTemplate = BenchmarkRedis.connect();
+        // KEYS[1]是库存key
+        stringRedisTemplate.opsForValue().set(KEYS.get(0), String.valueOf(Integer.MAX_VALUE));
+    }
+
+    @TearDown
+    public void tearDown() {
+        stringRedisTemplate.delete(KEYS);
+        BenchmarkRedis.destroy(stringRedisTemplate);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Long seckill() {
+        return stringRedisTemplate.execute(VoucherOrderServiceImpl.SECKILL_SCRIPT, KEYS,
+                VOUCHER_ID.toString(),
+                String.valueOf(userId.incrementAndGet()),
+                String.valueOf(orderId.incrementAndGet()),
+                String.valueOf(System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,99 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基准测试使用的redis
+ * memory：进程内的ConcurrentHashMap，只实现CacheClient和RedisIdWorker用到的字符串命令，用来测量代码本身的开销
+ * redis：连接 -Dredis.host/-Dredis.port/-Dredis.password/-Dredis.database 指定的redis（本地或嵌入式），测量包含网络往返的开销
+ */
+public final class BenchmarkRedis {
+
+    public static final String MEMORY = "memory";
+    public static final String REDIS = "redis";
+
+    private BenchmarkRedis() {
+    }
+
+    public static StringRedisTemplate create(String backend) {
+        if (REDIS.equals(backend)) {
+            return connect();
+        }
+        return new InMemoryStringRedisTemplate();
+    }
+
+    public static void destroy(StringRedisTemplate template) {
+        if (template.getConnectionFactory() instanceof LettuceConnectionFactory) {
+            ((LettuceConnectionFactory) template.getConnectionFactory()).destroy();
+        }
+    }
+
+    public static StringRedisTemplate connect() {
+        return connect(true);
+    }
+
+    /**
+     * @param shareNativeConnection 非阻塞命令是否共用一个连接，false时每条命令使用独立的连接
+     */
+    public static StringRedisTemplate connect(boolean shareNativeConnection) {
+        String host = System.getProperty("redis.host");
+        if (host == null) {
+            throw new IllegalStateException("redis后端需要指定 -Dredis.host");
+        }
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(host,
+                Integer.getInteger("redis.port", 6379));
+        config.setDatabase(Integer.getInteger("redis.database", 15));
+        if (System.getProperty("redis.password") != null) {
+            config.setPassword(System.getProperty("redis.password"));
+        }
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(config);
+        factory.setShareNativeConnection(shareNativeConnection);
+        factory.afterPropertiesSet();
+        return new StringRedisTemplate(factory);
+    }
+
+    /**
+     * 进程内的redis替身，忽略过期时间
+     */
+    static class InMemoryStringRedisTemplate extends StringRedisTemplate {
+
+        private final Map<String, String> data = new ConcurrentHashMap<>();
+
+        @SuppressWarnings("unchecked")
+        private final ValueOperations<String, String> valueOps = (ValueOperations<String, String>) Proxy.newProxyInstance(
+                ValueOperations.class.getClassLoader(), new Class[]{ValueOperations.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "get":
+                            return data.get((String) args[0]);
+                        case "set":
+                            data.put((String) args[0], (String) args[1]);
+                            return null;
+                        case "setIfAbsent":
+                            return data.putIfAbsent((String) args[0], (String) args[1]) == null;
+                        case "increment":
+                            long delta = args.length > 1 ? ((Number) args[1]).longValue() : 1L;
+                            return Long.parseLong(data.merge((String) args[0], String.valueOf(delta),
+                                    (old, d) -> String.valueOf(Long.parseLong(old) + Long.parseLong(d))));
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        @Override
+        public ValueOperations<String, String> opsForValue() {
+            return valueOps;
+        }
+
+        @Override
+        public Boolean delete(String key) {
+            return data.remove(key) != null;
+        }
+    }
+}
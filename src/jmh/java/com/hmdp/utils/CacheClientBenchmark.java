@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.entity.Shop;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * CacheClient命中缓存时的开销：一次GET + json反序列化
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheClientBenchmark {
+
+    private static final Long PASS_THROUGH_ID = 1L;
+    private static final Long LOGICAL_EXPIRE_ID = 2L;
+
+    @Param({BenchmarkRedis.MEMORY})
+    public String backend;
+
+    private StringRedisTemplate stringRedisTemplate;
+    private CacheClient cacheClient;
+
+    @Setup
+    public void setup() {
+        stringRedisTemplate = BenchmarkRedis.create(backend);
+        cacheClient = new CacheClient();
+        ReflectUtil.setFieldValue(cacheClient, "stringRedisTemplate", stringRedisTemplate);
+        ReflectUtil.setFieldValue(cacheClient, "metrics", new Metrics());
+        // 阈值设为最大，测量的是每次都访问redis的路径
+        HotKeyDetector hotKeyDetector = new HotKeyDetector();
+        ReflectUtil.setFieldValue(hotKeyDetector, "threshold", Long.MAX_VALUE);
+        ReflectUtil.setFieldValue(cacheClient, "hotKeyDetector", hotKeyDetector);
+        // 不开启微批合并，直接GET
+        RedisGetBatcher redisGetBatcher = new RedisGetBatcher();
+        ReflectUtil.setFieldValue(redisGetBatcher, "stringRedisTemplate", stringRedisTemplate);
+        ReflectUtil.setFieldValue(cacheClient, "redisGetBatcher", redisGetBatcher);
+        ReflectUtil.invoke(cacheClient, "init");
+        cacheClient.set(CACHE_SHOP_KEY + PASS_THROUGH_ID, BenchmarkData.shop(PASS_THROUGH_ID), CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        // 逻辑过期时间设置得足够长，测量期间不会触发重建
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + LOGICAL_EXPIRE_ID, BenchmarkData.shop(LOGICAL_EXPIRE_ID), 1L, TimeUnit.DAYS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        stringRedisTemplate.delete(CACHE_SHOP_KEY + PASS_THROUGH_ID);
+        stringRedisTemplate.delete(CACHE_SHOP_KEY + LOGICAL_EXPIRE_ID);
+        BenchmarkRedis.destroy(stringRedisTemplate);
+    }
+
+    @Benchmark
+    public Shop queryWithPassThroughHit() {
+        return cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, PASS_THROUGH_ID, Shop.class,
+                id -> null, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop queryWithLogicalExpireHit() {
+        return cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, LOCK_SHOP_KEY, LOGICAL_EXPIRE_ID, Shop.class,
+                id -> null, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,114 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.ReflectUtil;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录写会话和拦截器续期：逐条发送和RedisBatch一次发送的对比
+ * 只能连接真实的redis：-Dredis.host=...，测量的就是网络往返次数的差别
+ * shareNativeConnection=false时每条命令独立借连接，对比共享多路复用连接的效果
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisBatchBenchmark {
+
+    private static final String TOKEN = "benchmark-token";
+    private static final String USER_ID = "1";
+
+    @Param({"true", "false"})
+    public boolean shareNativeConnection;
+
+    private StringRedisTemplate stringRedisTemplate;
+    private RedisBatch redisBatch;
+    private final Map<String, String> userMap = new HashMap<>();
+
+    @Setup
+    public void setup() {
+        stringRedisTemplate = BenchmarkRedis.connect(shareNativeConnection);
+        redisBatch = new RedisBatch();
+        ReflectUtil.setFieldValue(redisBatch, "stringRedisTemplate", stringRedisTemplate);
+        userMap.put("id", USER_ID);
+        userMap.put("nickName", "user_benchmark");
+        userMap.put("icon", "");
+    }
+
+    @TearDown
+    public void tearDown() {
+        stringRedisTemplate.delete(LOGIN_USER_KEY + TOKEN);
+        stringRedisTemplate.delete(LOGIN_USER_TOKENS_KEY + USER_ID);
+        BenchmarkRedis.destroy(stringRedisTemplate);
+    }
+
+    /**
+     * 原来的登录：HMSET、EXPIRE、SADD、EXPIRE、SCARD，5次往返
+     */
+    @Benchmark
+    public Long loginSequential() {
+        String tokenKey = LOGIN_USER_KEY + TOKEN;
+        String indexKey = LOGIN_USER_TOKENS_KEY + USER_ID;
+        stringRedisTemplate.opsForHash().putAll(tokenKey, userMap);
+        stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        stringRedisTemplate.opsForSet().add(indexKey, TOKEN);
+        stringRedisTemplate.expire(indexKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        return stringRedisTemplate.opsForSet().size(indexKey);
+    }
+
+    /**
+     * 现在的登录：一次事务加一次管道，2次往返
+     */
+    @Benchmark
+    public Long loginBatched() {
+        String tokenKey = LOGIN_USER_KEY + TOKEN;
+        String indexKey = LOGIN_USER_TOKENS_KEY + USER_ID;
+        long ttl = TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+        redisBatch.transaction(connection -> {
+            connection.hMSet(tokenKey, userMap);
+            connection.expire(tokenKey, ttl);
+        });
+        List<Object> results = redisBatch.pipeline(connection -> {
+            connection.sAdd(indexKey, TOKEN);
+            connection.expire(indexKey, ttl);
+            connection.sCard(indexKey);
+        });
+        return (Long) results.get(2);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Long loginBatchedContended() {
+        return loginBatched();
+    }
+
+    /**
+     * 拦截器续期token和会话索引：逐条2次往返
+     */
+    @Benchmark
+    public Boolean refreshSequential() {
+        stringRedisTemplate.expire(LOGIN_USER_KEY + TOKEN, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        return stringRedisTemplate.expire(LOGIN_USER_TOKENS_KEY + USER_ID, LOGIN_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 拦截器续期token和会话索引：一次管道
+     */
+    @Benchmark
+    public List<Object> refreshPipelined() {
+        long ttl = TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+        return redisBatch.pipeline(connection -> {
+            connection.expire(LOGIN_USER_KEY + TOKEN, ttl);
+            connection.expire(LOGIN_USER_TOKENS_KEY + USER_ID, ttl);
+        });
+    }
+}
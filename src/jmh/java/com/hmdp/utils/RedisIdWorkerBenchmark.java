@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.ReflectUtil;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisIdWorker.nextId：一次INCR + 时间格式化
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisIdWorkerBenchmark {
+
+    @Param({BenchmarkRedis.MEMORY})
+    public String backend;
+
+    private StringRedisTemplate stringRedisTemplate;
+    private RedisIdWorker redisIdWorker;
+
+    @Setup
+    public void setup() {
+        stringRedisTemplate = BenchmarkRedis.create(backend);
+        redisIdWorker = new RedisIdWorker();
+        ReflectUtil.setFieldValue(redisIdWorker, "stringRedisTemplate", stringRedisTemplate);
+        ReflectUtil.setFieldValue(redisIdWorker, "metrics", new Metrics());
+        ReflectUtil.invoke(redisIdWorker, "init");
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkRedis.destroy(stringRedisTemplate);
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdWorker.nextId("bench");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long nextIdContended() {
+        return redisIdWorker.nextId("bench");
+    }
+}
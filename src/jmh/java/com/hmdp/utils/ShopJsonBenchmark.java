@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商铺缓存的json序列化和反序列化，CacheClient每次读写缓存都会执行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShopJsonBenchmark {
+
+    private Shop shop;
+    private String json;
+
+    @Setup
+    public void setup() {
+        shop = BenchmarkData.shop(1L);
+        json = JSONUtil.toJsonStr(shop);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return JSONUtil.toJsonStr(shop);
+    }
+
+    @Benchmark
+    public Shop toBean() {
+        return JSONUtil.toBean(json, Shop.class);
+    }
+}
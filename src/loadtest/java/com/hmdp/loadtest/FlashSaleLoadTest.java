@@ -0,0 +1,225 @@
+package com.hmdp.loadtest;
+
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.HmDianPingApplication;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.User;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.VoucherOrderShards;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 秒杀压测
+ * 1.启动应用（loadtest配置，连接本地mysql和redis），批量创建用户、token和一张秒杀券
+ * 2.按配置的并发请求秒杀接口，统计吞吐量和p50/p90/p99延迟
+ * 3.等待订单全部落库后校验：不超卖、没有重复订单、成功的请求都已落库、数据库库存与订单数一致
+ * 校验失败时以非0状态退出
+ * 秒杀限流在loadtest配置中调高，所有请求都来自本机，不伪造来源ip
+ * 注意：压测还没有在真实的mysql和redis上完整跑过，上面的校验本身也还没有被验证过
+ *
+ * 参数（-D）：
+ * loadtest.users         用户数，默认2000
+ * loadtest.stock         库存，默认200
+ * loadtest.concurrency   并发数，默认200
+ * loadtest.attempts      每个用户的请求次数，大于1时同时验证一人一单，默认1
+ * loadtest.path          秒杀接口，默认 /voucher-order/seckill/{id}，可以换成 /voucher-order/seckill/{id}/async
+ * loadtest.base-url      请求其它已经启动的实例，默认请求本进程内启动的应用
+ * loadtest.drain-seconds 等待订单落库的最长时间，默认60
+ */
+@Slf4j
+public class FlashSaleLoadTest {
+
+    private final int users = Integer.getInteger("loadtest.users", 2000);
+    private final int stock = Integer.getInteger("loadtest.stock", 200);
+    private final int concurrency = Integer.getInteger("loadtest.concurrency", 200);
+    private final int attempts = Integer.getInteger("loadtest.attempts", 1);
+    private final String path = System.getProperty("loadtest.path", "/voucher-order/seckill/{id}");
+    private final int drainSeconds = Integer.getInteger("loadtest.drain-seconds", 60);
+
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        SpringApplication application = new SpringApplication(HmDianPingApplication.class);
+        application.setAdditionalProfiles("loadtest");
+        ConfigurableApplicationContext context = application.run(args);
+        int exitCode;
+        try {
+            exitCode = new FlashSaleLoadTest().run(context);
+        } finally {
+            context.close();
+        }
+        System.exit(exitCode);
+    }
+
+    private int run(ConfigurableApplicationContext context) throws Exception {
+        String baseUrl = System.getProperty("loadtest.base-url",
+                "http://127.0.0.1:" + ((WebServerApplicationContext) context).getWebServer().getPort());
+
+        // 1.准备数据
+        LoadTestFixtures fixtures = new LoadTestFixtures(context);
+        List<User> userList = fixtures.users(users);
+        List<String> tokens = fixtures.tokens(userList);
+        Voucher voucher = fixtures.seckillVoucher(stock);
+        String url = baseUrl + path.replace("{id}", voucher.getId().toString());
+        log.info("压测开始，url：{}，用户：{}，库存：{}，并发：{}，每人请求：{}", url, users, stock, concurrency, attempts);
+
+        // 2.并发请求，同一用户的多次请求打散到不同位置
+        List<Integer> requests = new ArrayList<>(users * attempts);
+        for (int a = 0; a < attempts; a++) {
+            for (int i = 0; i < users; i++) {
+                requests.add(i);
+            }
+        }
+        Collections.shuffle(requests);
+        long[] latencies = new long[requests.size()];
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        CountDownLatch done = new CountDownLatch(requests.size());
+        long begin = System.nanoTime();
+        for (int n = 0; n < requests.size(); n++) {
+            int index = n;
+            int userIndex = requests.get(n);
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    seckill(url, tokens.get(userIndex));
+                } finally {
+                    latencies[index] = System.nanoTime() - start;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        report(latencies, elapsed);
+
+        // 3.等待落库并校验
+        return verify(context, voucher.getId());
+    }
+
+    private void seckill(String url, String token) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("authorization", token);
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(30000);
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            String body = in == null ? "" : IoUtil.read(in, StandardCharsets.UTF_8);
+            if (status != 200) {
+                fail("HTTP " + status);
+                return;
+            }
+            JSONObject result = JSONUtil.parseObj(body);
+            if (Boolean.TRUE.equals(result.getBool("success"))) {
+                succeeded.incrementAndGet();
+            } else {
+                fail(result.getStr("errorMsg"));
+            }
+        } catch (Exception e) {
+            fail(e.getClass().getSimpleName());
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private void fail(String reason) {
+        failures.computeIfAbsent(String.valueOf(reason), k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private void report(long[] latencies, long elapsedNanos) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        log.info("请求数：{}，耗时：{}s，吞吐量：{}/s", sorted.length, String.format("%.2f", seconds),
+                String.format("%.0f", sorted.length / seconds));
+        log.info("延迟(ms) p50：{}，p90：{}，p99：{}，max：{}",
+                millis(percentile(sorted, 50)), millis(percentile(sorted, 90)),
+                millis(percentile(sorted, 99)), millis(sorted[sorted.length - 1]));
+        log.info("秒杀成功：{}，失败：{}", succeeded.get(), failures);
+    }
+
+    private int verify(ConfigurableApplicationContext context, Long voucherId) throws InterruptedException {
+        IVoucherOrderService voucherOrderService = context.getBean(IVoucherOrderService.class);
+        ISeckillVoucherService seckillVoucherService = context.getBean(ISeckillVoucherService.class);
+        VoucherOrderShards voucherOrderShards = context.getBean(VoucherOrderShards.class);
+        // 1.订单异步落库，等到数量与成功的请求数一致或超时
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(drainSeconds);
+        int orders = countOrders(voucherOrderService, voucherOrderShards, voucherId);
+        while (orders < succeeded.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(500);
+            orders = countOrders(voucherOrderService, voucherOrderShards, voucherId);
+        }
+        List<String> errors = new ArrayList<>();
+        // 2.不超卖
+        if (orders > stock) {
+            errors.add("超卖：订单数" + orders + " > 库存" + stock);
+        }
+        // 3.一人一单，同一用户的订单总在同一个分片中
+        List<Map<String, Object>> duplicates = new ArrayList<>();
+        for (int shard = 0; shard < voucherOrderShards.getShards(); shard++) {
+            duplicates.addAll(VoucherOrderShards.call(shard, () -> voucherOrderService.listMaps(new QueryWrapper<VoucherOrder>()
+                    .select("user_id", "count(*) AS cnt")
+                    .eq("voucher_id", voucherId)
+                    .groupBy("user_id")
+                    .having("count(*) > 1"))));
+        }
+        if (!duplicates.isEmpty()) {
+            errors.add("重复下单的用户：" + duplicates);
+        }
+        // 4.成功的请求都已落库
+        if (orders != succeeded.get()) {
+            errors.add("秒杀成功" + succeeded.get() + "，落库订单" + orders);
+        }
+        // 5.数据库库存与订单数一致
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        if (seckillVoucher.getStock() < 0 || seckillVoucher.getStock() != stock - orders) {
+            errors.add("数据库库存" + seckillVoucher.getStock() + "，初始库存" + stock + "，订单数" + orders);
+        }
+        if (errors.isEmpty()) {
+            log.info("校验通过，voucherId：{}，订单数：{}", voucherId, orders);
+            return 0;
+        }
+        errors.forEach(error -> log.error("校验失败：{}", error));
+        return 1;
+    }
+
+    private static int countOrders(IVoucherOrderService voucherOrderService, VoucherOrderShards voucherOrderShards, Long voucherId) {
+        int count = 0;
+        for (int shard = 0; shard < voucherOrderShards.getShards(); shard++) {
+            count += VoucherOrderShards.call(shard, () -> voucherOrderService.query().eq("voucher_id", voucherId).count());
+        }
+        return count;
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+}
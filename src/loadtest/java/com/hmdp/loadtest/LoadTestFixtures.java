@@ -0,0 +1,145 @@
+package com.hmdp.loadtest;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.IUserService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SignedTokenHelper;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
+
+/**
+ * 压测数据：批量创建用户和登录token、创建秒杀券，绕过短信验证码
+ */
+class LoadTestFixtures {
+
+    // 压测用户的手机号前缀，后8位是序号，重复执行时复用已经创建的用户
+    private static final String PHONE_PREFIX = "199";
+    private static final int BATCH_SIZE = 1000;
+
+    private final IUserService userService;
+    private final IVoucherService voucherService;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SignedTokenHelper signedTokenHelper;
+
+    LoadTestFixtures(ApplicationContext context) {
+        this.userService = context.getBean(IUserService.class);
+        this.voucherService = context.getBean(IVoucherService.class);
+        this.stringRedisTemplate = context.getBean(StringRedisTemplate.class);
+        this.signedTokenHelper = context.getBean(SignedTokenHelper.class);
+    }
+
+    /**
+     * 查询或创建count个压测用户
+     */
+    List<User> users(int count) {
+        Map<String, User> existing = loadUsers();
+        List<User> missing = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String phone = String.format("%s%08d", PHONE_PREFIX, i);
+            if (!existing.containsKey(phone)) {
+                User user = new User();
+                user.setPhone(phone);
+                user.setNickName(USER_NICK_NAME_PREFIX + "load" + i);
+                missing.add(user);
+            }
+        }
+        if (!missing.isEmpty()) {
+            userService.saveBatch(missing, BATCH_SIZE);
+            // 重新查询，拿到自增id
+            existing = loadUsers();
+        }
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(existing.get(String.format("%s%08d", PHONE_PREFIX, i)));
+        }
+        return users;
+    }
+
+    private Map<String, User> loadUsers() {
+        Map<String, User> users = new HashMap<>();
+        for (User user : userService.query().likeRight("phone", PHONE_PREFIX).list()) {
+            users.put(user.getPhone(), user);
+        }
+        return users;
+    }
+
+    /**
+     * 为每个用户签发登录token，与登录接口写入的数据相同
+     */
+    List<String> tokens(List<User> users) {
+        List<String> tokens = new ArrayList<>(users.size());
+        if (signedTokenHelper.isSignedMode()) {
+            for (User user : users) {
+                tokens.add(signedTokenHelper.issue(toUserDTO(user)).getToken());
+            }
+            return tokens;
+        }
+        for (int i = 0; i < users.size(); i++) {
+            tokens.add(UUID.randomUUID().toString(true));
+        }
+        // 分批用管道写入会话hash
+        for (int from = 0; from < users.size(); from += BATCH_SIZE) {
+            int to = Math.min(from + BATCH_SIZE, users.size());
+            int start = from;
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = start; i < to; i++) {
+                    User user = users.get(i);
+                    byte[] key = bytes(LOGIN_USER_KEY + tokens.get(i));
+                    Map<byte[], byte[]> fields = new HashMap<>();
+                    fields.put(bytes("id"), bytes(user.getId().toString()));
+                    fields.put(bytes("nickName"), bytes(user.getNickName()));
+                    fields.put(bytes("icon"), bytes(user.getIcon() == null ? "" : user.getIcon()));
+                    connection.hMSet(key, fields);
+                    connection.expire(key, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL));
+                }
+                return null;
+            });
+        }
+        return tokens;
+    }
+
+    /**
+     * 创建一张已经开始的秒杀券
+     */
+    Voucher seckillVoucher(int stock) {
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("压测秒杀券");
+        voucher.setSubTitle("load test");
+        voucher.setRules("压测数据");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(10000L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(stock);
+        voucher.setBeginTime(LocalDateTime.now().minusMinutes(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher;
+    }
+
+    private static UserDTO toUserDTO(User user) {
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(user.getId());
+        userDTO.setNickName(user.getNickName());
+        userDTO.setIcon(user.getIcon());
+        return userDTO;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
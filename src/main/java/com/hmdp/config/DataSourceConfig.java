@@ -0,0 +1,84 @@
+package com.hmdp.config;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.utils.Metrics;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 主库和只读副本
+ * 主库使用spring.datasource的配置，副本在hmdp.datasource.replicas中配置，用户名密码和驱动默认与主库相同
+ * 没有配置副本时所有查询都访问主库
+ */
+@Configuration
+public class DataSourceConfig {
+
+    @Data
+    public static class Replica {
+        private String url;
+        private String username;
+        private String password;
+    }
+
+    /**
+     * 主库连接池，和spring boot默认的配置方式相同，支持spring.datasource.hikari.*
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource routingDataSource(HikariDataSource primaryDataSource, DataSourceProperties properties,
+                                                      Environment environment, Metrics metrics,
+                                                      @Value("${hmdp.datasource.max-replica-lag-seconds:2}") long maxLagSeconds,
+                                                      @Value("${hmdp.datasource.replica-connection-timeout-millis:1000}") long connectionTimeoutMillis) {
+        List<Replica> configs = Binder.get(environment)
+                .bind("hmdp.datasource.replicas", Bindable.listOf(Replica.class))
+                .orElse(Collections.emptyList());
+        List<HikariDataSource> replicas = new ArrayList<>(configs.size());
+        for (int i = 0; i < configs.size(); i++) {
+            Replica config = configs.get(i);
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + i);
+            replica.setDriverClassName(properties.determineDriverClassName());
+            replica.setJdbcUrl(config.getUrl());
+            replica.setUsername(StrUtil.blankToDefault(config.getUsername(), properties.determineUsername()));
+            replica.setPassword(StrUtil.blankToDefault(config.getPassword(), properties.determinePassword()));
+            replica.setMaximumPoolSize(primaryDataSource.getMaximumPoolSize());
+            replica.setReadOnly(true);
+            // 副本不可用时尽快失败，不按默认的30秒等待连接，查询和延迟检查都不会被拖住
+            replica.setConnectionTimeout(connectionTimeoutMillis);
+            replica.setValidationTimeout(Math.max(250L, connectionTimeoutMillis / 2));
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, maxLagSeconds, metrics);
+    }
+
+    /**
+     * 应用中使用的数据源，到第一条语句执行时才获取连接，这时已经知道是否只读
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+}
@@ -1,13 +1,33 @@
 package com.hmdp.config;
 
+import com.hmdp.interceptor.AdminInterceptor;
 import com.hmdp.interceptor.Logininterceptor;
+import com.hmdp.interceptor.MetricsInterceptor;
+import com.hmdp.interceptor.RateLimitInterceptor;
+import com.hmdp.interceptor.RateLimitRule;
 import com.hmdp.interceptor.RefreshTokenInterceptor;
+import com.hmdp.interceptor.RequestContextCleanupFilter;
+import com.hmdp.interceptor.ResponseCacheFilter;
+import com.hmdp.utils.LoginUserCache;
+import com.hmdp.utils.Metrics;
+import com.hmdp.utils.RateLimiter;
+import com.hmdp.utils.RedisBatch;
+import com.hmdp.utils.ResponseCache;
+import com.hmdp.utils.SignedTokenHelper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.interceptor.RateLimitRule.Dimension.*;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
@@ -15,8 +35,41 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private LoginUserCache loginUserCache;
+
+    @Resource
+    private SignedTokenHelper signedTokenHelper;
+
+    @Resource
+    private RateLimiter rateLimiter;
+
+    @Resource
+    private Metrics metrics;
+
+    @Resource
+    private ResponseCache responseCache;
+
+    @Resource
+    private RedisBatch redisBatch;
+
+    @Value("${hmdp.admin.user-ids:}")
+    private Set<Long> adminUserIds;
+
+    @Value("${hmdp.rate-limit.trusted-proxies:}")
+    private Set<String> trustedProxies;
+
+    @Value("${hmdp.rate-limit.seckill.user-per-second:3}")
+    private int seckillUserPerSecond;
+
+    @Value("${hmdp.rate-limit.seckill.ip-per-second:50}")
+    private int seckillIpPerSecond;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
+        // 请求延迟统计，最先执行，包含其它拦截器的耗时
+        registry.addInterceptor(new MetricsInterceptor(metrics))
+                .addPathPatterns("/**").order(-1);
         // 登录拦截器
         registry.addInterceptor(new Logininterceptor())
                 .excludePathPatterns(
@@ -26,10 +79,49 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/upload/**",
                         "/blog/hot",
                         "/user/code",
-                        "/user/login"
+                        "/user/login",
+                        "/metrics"
                 ).order(1);
+        // 运维接口只允许管理员调用
+        registry.addInterceptor(new AdminInterceptor(adminUserIds))
+                .addPathPatterns("/admin/**").order(1);
         // token刷新拦截器
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
+        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate, loginUserCache, signedTokenHelper, redisBatch))
                 .addPathPatterns("/**").order(0);
+        // 限流拦截器，在token刷新之后执行，才能按用户限流
+        // 发送验证码：同一手机号60秒1次、1小时5次，同一ip每分钟20次
+        registry.addInterceptor(new RateLimitInterceptor("code", rateLimiter, trustedProxies,
+                        RateLimitRule.of(PHONE, 1, 60, TimeUnit.SECONDS),
+                        RateLimitRule.of(PHONE, 5, 1, TimeUnit.HOURS),
+                        RateLimitRule.of(IP, 20, 1, TimeUnit.MINUTES)))
+                .addPathPatterns("/user/code").order(2);
+        // 秒杀：同一用户每秒3次，同一ip每秒50次，压测环境中调高
+        registry.addInterceptor(new RateLimitInterceptor("seckill", rateLimiter, trustedProxies,
+                        RateLimitRule.of(USER, seckillUserPerSecond, 1, TimeUnit.SECONDS),
+                        RateLimitRule.of(IP, seckillIpPerSecond, 1, TimeUnit.SECONDS)))
+                .addPathPatterns("/voucher-order/seckill/**").order(2);
+    }
+
+    /**
+     * 请求上下文清理过滤器，排在最前面
+     */
+    @Bean
+    public FilterRegistrationBean<RequestContextCleanupFilter> requestContextCleanupFilter() {
+        FilterRegistrationBean<RequestContextCleanupFilter> registration = new FilterRegistrationBean<>(new RequestContextCleanupFilter());
+        registration.addUrlPatterns("/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+
+    /**
+     * 只读GET接口的响应缓存，命中时不再进入拦截器和controller
+     * 具体哪些路径可以缓存由ResponseCache判断
+     */
+    @Bean
+    public FilterRegistrationBean<ResponseCacheFilter> responseCacheFilter() {
+        FilterRegistrationBean<ResponseCacheFilter> registration = new FilterRegistrationBean<>(new ResponseCacheFilter(responseCache, metrics));
+        registration.addUrlPatterns("/shop/*", "/shop-type/list", "/voucher/list/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 10);
+        return registration;
     }
 }
@@ -2,16 +2,52 @@ package com.hmdp.config;
 
 import com.baomidou.mybatisplus.annotation.DbType;
 import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
+import com.baomidou.mybatisplus.extension.plugins.handler.TableNameHandler;
+import com.baomidou.mybatisplus.extension.plugins.inner.DynamicTableNameInnerInterceptor;
 import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
+import com.hmdp.interceptor.SlowSqlInterceptor;
+import com.hmdp.interceptor.WriteTrackingInterceptor;
+import com.hmdp.utils.Metrics;
+import com.hmdp.utils.VoucherOrderShards;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+
+import javax.sql.DataSource;
+import java.util.Collections;
 
 @Configuration
 public class MybatisConfig {
     @Bean
     public MybatisPlusInterceptor mybatisPlusInterceptor() {
         MybatisPlusInterceptor interceptor = new MybatisPlusInterceptor();
+        // 订单分表，tb_voucher_order替换为当前分片的表，需要在分页之前
+        TableNameHandler voucherOrderTable = (sql, tableName) -> VoucherOrderShards.currentTable();
+        interceptor.addInnerInterceptor(new DynamicTableNameInnerInterceptor(
+                Collections.singletonMap(VoucherOrderShards.LOGIC_TABLE, voucherOrderTable)));
         interceptor.addInnerInterceptor(new PaginationInnerInterceptor(DbType.MYSQL));
         return interceptor;
     }
+
+    /**
+     * SQL耗时统计和慢SQL执行计划采集
+     * 排在最前面，mybatis中最先添加的插件在最里层，prepare时外层已经替换了表名，EXPLAIN的是实际执行的分表sql
+     */
+    @Bean
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public SlowSqlInterceptor slowSqlInterceptor(DataSource dataSource, Metrics metrics,
+                                                 @Value("${hmdp.sql.slow-millis:100}") long slowMillis,
+                                                 @Value("${hmdp.sql.explain-interval-minutes:10}") long explainIntervalMinutes) {
+        return new SlowSqlInterceptor(dataSource, metrics, slowMillis, explainIntervalMinutes);
+    }
+
+    /**
+     * 记录请求中的写操作，之后的查询不再路由到只读副本
+     */
+    @Bean
+    public WriteTrackingInterceptor writeTrackingInterceptor() {
+        return new WriteTrackingInterceptor();
+    }
 }
@@ -0,0 +1,29 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.DataSourceRouter;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * @ReadOnly方法中的查询路由到只读副本
+ * 排在事务切面之前，事务中第一条语句获取连接时已经标记好
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ReadOnlyAspect {
+
+    @Around("@annotation(com.hmdp.utils.ReadOnly) || @within(com.hmdp.utils.ReadOnly)")
+    public Object readOnly(ProceedingJoinPoint joinPoint) throws Throwable {
+        DataSourceRouter.enterReadOnly();
+        try {
+            return joinPoint.proceed();
+        } finally {
+            DataSourceRouter.exitReadOnly();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.hmdp.config;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.utils.Metrics;
+import com.hmdp.utils.RedisCommandMetrics;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.event.DefaultEventPublisherOptions;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * lettuce客户端资源和非阻塞的redis连接
+ */
+@Configuration
+public class RedisAsyncConfig {
+
+    /**
+     * 替换spring boot默认的ClientResources，所有lettuce连接都记录命令延迟
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ClientResources lettuceClientResources(Metrics metrics) {
+        return DefaultClientResources.builder()
+                .commandLatencyCollector(new RedisCommandMetrics(metrics))
+                .commandLatencyPublisherOptions(DefaultEventPublisherOptions.disabled())
+                .build();
+    }
+
+    /**
+     * 非阻塞的redis连接，给秒杀的异步接口使用
+     * lettuce的连接是线程安全的，命令在同一个连接上流水线发送，少量线程就能维持大量未完成的请求
+     */
+    @Bean(destroyMethod = "shutdown")
+    public RedisClient asyncRedisClient(RedisProperties properties, ClientResources lettuceClientResources) {
+        RedisURI uri = RedisURI.create(properties.getHost(), properties.getPort());
+        if (StrUtil.isNotBlank(properties.getPassword())) {
+            uri.setPassword(properties.getPassword());
+        }
+        uri.setDatabase(properties.getDatabase());
+        return RedisClient.create(lettuceClientResources, uri);
+    }
+
+    @Bean(destroyMethod = "close")
+    public StatefulRedisConnection<String, String> asyncRedisConnection(RedisClient asyncRedisClient) {
+        return asyncRedisClient.connect();
+    }
+}
@@ -0,0 +1,52 @@
+package com.hmdp.config;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 调整spring boot创建的lettuce连接工厂
+ * 1.共享连接：非阻塞命令在同一个多路复用连接上发送，不占用连接池；连接池只用于管道、事务和阻塞命令（如订单队列的XREADGROUP BLOCK）
+ *   关闭后每条命令都要从连接池借连接，并发高时会在连接池上排队
+ * 2.管道的写出策略：默认每条命令写一次socket，改为管道结束时一次写出，减少系统调用和网络包
+ */
+@Component
+public class RedisConnectionTuning implements BeanPostProcessor, EnvironmentAware {
+
+    private boolean shareNativeConnection = true;
+    private String pipelineFlush = "on-close";
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        shareNativeConnection = environment.getProperty("hmdp.redis.share-native-connection", Boolean.class, true);
+        pipelineFlush = environment.getProperty("hmdp.redis.pipeline-flush", "on-close");
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        if (bean instanceof LettuceConnectionFactory) {
+            LettuceConnectionFactory factory = (LettuceConnectionFactory) bean;
+            factory.setShareNativeConnection(shareNativeConnection);
+            factory.setPipeliningFlushPolicy(flushPolicy(pipelineFlush));
+        }
+        return bean;
+    }
+
+    /**
+     * each-command：每条命令单独写出；on-close：管道结束时一次写出；数字n：每n条命令写出一次
+     */
+    private static LettuceConnection.PipeliningFlushPolicy flushPolicy(String value) {
+        switch (value) {
+            case "each-command":
+                return LettuceConnection.PipeliningFlushPolicy.flushEachCommand();
+            case "on-close":
+                return LettuceConnection.PipeliningFlushPolicy.flushOnClose();
+            default:
+                return LettuceConnection.PipeliningFlushPolicy.buffered(Integer.parseInt(value));
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.hmdp.config;
 
 
+import cn.hutool.core.util.StrUtil;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -11,10 +13,14 @@ import org.springframework.context.annotation.Configuration;
 public class RedissonConfig {
 
     @Bean
-    public RedissonClient redissonClient(){
+    public RedissonClient redissonClient(RedisProperties properties){
 
+        // 与spring.redis使用同一个redis，切换环境时不用再改这里
         Config config = new Config();
-        config.useSingleServer().setAddress("redis://192.168.150.102:6379").setPassword("123456");
+        config.useSingleServer()
+                .setAddress("redis://" + properties.getHost() + ":" + properties.getPort())
+                .setPassword(StrUtil.emptyToNull(properties.getPassword()))
+                .setDatabase(properties.getDatabase());
         return Redisson.create(config);
     }
 }
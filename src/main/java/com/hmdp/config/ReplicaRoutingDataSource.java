@@ -0,0 +1,160 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.DataSourceRouter;
+import com.hmdp.utils.Metrics;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 读写分离的路由数据源
+ * 1.只读的查询（@ReadOnly方法中、只读事务中）轮询分配到健康的副本，其余访问主库
+ * 2.本次请求已经写过数据时，后续的查询也访问主库
+ * 3.每秒检查一次副本的复制延迟，超过阈值、复制中断或无法连接的副本不再分配，全部不可用时访问主库
+ *   检查在单独的线程中执行，副本连不上时不会拖慢共用调度线程的其它定时任务
+ * 外面需要包一层LazyConnectionDataSourceProxy，事务开始时还不知道是否只读，到第一条语句执行时才决定连接哪个库
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    private static final String PRIMARY = "primary";
+    // 检查延迟的查询超时，秒
+    private static final int LAG_QUERY_TIMEOUT_SECONDS = 1;
+
+    private final List<HikariDataSource> replicas;
+    private final long maxLagSeconds;
+
+    // 每个副本的复制延迟，秒，-1表示不可用；检查线程写入，路由和指标采集线程读取
+    private final AtomicLongArray lags;
+    // 当前可以分配查询的副本下标
+    private volatile int[] healthy = new int[0];
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService lagChecker;
+
+    private final Metrics.Counter primaryRoutes;
+    private final Metrics.Counter replicaRoutes;
+
+    public ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicas, long maxLagSeconds, Metrics metrics) {
+        this.replicas = replicas;
+        this.maxLagSeconds = maxLagSeconds;
+        this.lags = new AtomicLongArray(replicas.size());
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < replicas.size(); i++) {
+            targets.put(i, replicas.get(i));
+            lags.set(i, -1);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+
+        Metrics.Family<Metrics.Counter> routes = metrics.counter("hmdp_db_connections_total", "按主库、副本统计获取的数据库连接数", "target");
+        primaryRoutes = routes.get(PRIMARY);
+        replicaRoutes = routes.get("replica");
+        Metrics.Family<Metrics.Gauge> lagGauge = metrics.gauge("hmdp_db_replica_lag_seconds", "副本的复制延迟，-1表示不可用", "replica");
+        for (int i = 0; i < replicas.size(); i++) {
+            int index = i;
+            lagGauge.get(replicas.get(i).getPoolName()).set(() -> lags.get(index));
+        }
+        if (replicas.isEmpty()) {
+            lagChecker = null;
+            return;
+        }
+        lagChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replica-lag-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lagChecker.scheduleWithFixedDelay(this::checkReplicaLag, 0, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        int[] candidates = healthy;
+        if (candidates.length == 0 || !isReadOnly()) {
+            primaryRoutes.increment();
+            return PRIMARY;
+        }
+        replicaRoutes.increment();
+        return candidates[Math.floorMod(next.getAndIncrement(), candidates.length)];
+    }
+
+    private static boolean isReadOnly() {
+        if (DataSourceRouter.hasWritten()) {
+            return false;
+        }
+        // 事务中以事务的只读属性为准，读写事务中的查询必须和写操作在同一个连接上
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        }
+        return DataSourceRouter.isReadOnly();
+    }
+
+    /**
+     * 检查副本的复制延迟
+     */
+    private void checkReplicaLag() {
+        int[] candidates = new int[replicas.size()];
+        int count = 0;
+        for (int i = 0; i < replicas.size(); i++) {
+            long lag = queryLag(replicas.get(i));
+            lags.set(i, lag);
+            if (lag >= 0 && lag <= maxLagSeconds) {
+                candidates[count++] = i;
+            }
+        }
+        int[] previous = healthy;
+        int[] current = Arrays.copyOf(candidates, count);
+        if (previous.length != current.length) {
+            log.warn("可用的只读副本数量变化：{} -> {}，延迟：{}", previous.length, current.length, lags);
+        }
+        healthy = current;
+    }
+
+    private static long queryLag(HikariDataSource replica) {
+        try (Connection connection = replica.getConnection();
+             Statement statement = createStatement(connection);
+             ResultSet rs = statement.executeQuery("SHOW SLAVE STATUS")) {
+            // 不是从库（例如开发环境直接指向主库），没有延迟
+            if (!rs.next()) {
+                return 0;
+            }
+            // 复制中断时为null
+            long lag = rs.getLong("Seconds_Behind_Master");
+            return rs.wasNull() ? -1 : lag;
+        } catch (Exception e) {
+            log.error("查询副本{}的复制延迟失败", replica.getPoolName(), e);
+            return -1;
+        }
+    }
+
+    private static Statement createStatement(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        statement.setQueryTimeout(LAG_QUERY_TIMEOUT_SECONDS);
+        return statement;
+    }
+
+    @Override
+    public void destroy() {
+        if (lagChecker != null) {
+            lagChecker.shutdownNow();
+        }
+        replicas.forEach(HikariDataSource::close);
+    }
+}
@@ -0,0 +1,47 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherService;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_PRELOAD_MAX_AHEAD;
+
+/**
+ * 运维接口，需要登录并且是配置的管理员
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    /**
+     * 手动预热即将开始和进行中的秒杀券
+     * @param minutes 预热多少分钟内开始的秒杀，最多一天
+     * @return 预热的秒杀券数量
+     */
+    @PostMapping("seckill/preload")
+    public Result preloadSeckillVouchers(@RequestParam(value = "minutes", defaultValue = "10") Long minutes) {
+        if (minutes < 0 || minutes > SECKILL_PRELOAD_MAX_AHEAD) {
+            return Result.fail("预热时间必须在0~" + SECKILL_PRELOAD_MAX_AHEAD + "分钟之间");
+        }
+        return Result.ok(voucherService.preloadSeckillVouchers(minutes));
+    }
+
+    /**
+     * 手动对账一张秒杀券的redis和数据库数据
+     * @param voucherId 优惠券id
+     * @return 对账结果
+     */
+    @PostMapping("seckill/reconcile/{id}")
+    public Result reconcileSeckillVoucher(@PathVariable("id") Long voucherId) {
+        return Result.ok(seckillVoucherService.reconcile(voucherId));
+    }
+}
@@ -0,0 +1,22 @@
+package com.hmdp.controller;
+
+import com.hmdp.utils.Metrics;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * prometheus抓取指标的接口
+ */
+@RestController
+public class MetricsController {
+
+    @Resource
+    private Metrics metrics;
+
+    @GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    public String metrics() {
+        return metrics.scrape();
+    }
+}
@@ -3,12 +3,14 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import com.hmdp.utils.OrderStreamMonitor;
+import com.hmdp.utils.SeckillResultNotifier;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -25,8 +27,68 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private SeckillResultNotifier seckillResultNotifier;
+
+    @Resource
+    private OrderStreamMonitor orderStreamMonitor;
+
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 非阻塞的秒杀，结果和seckill/{id}相同
+     * 请求线程只负责发出redis命令，结果由redis的io线程回调写回，大量并发请求不会占满tomcat线程池
+     */
+    @PostMapping("seckill/{id}/async")
+    public CompletableFuture<Result> seckillVoucherAsync(@PathVariable("id") Long voucherId) {
+        // 用户在请求线程中取出后显式传递，回调线程中没有UserHolder
+        return voucherOrderService.seckillVoucherAsync(voucherId, UserHolder.getUser());
+    }
+
+    /**
+     * 查询秒杀订单的异步落库结果
+     * @param orderId 秒杀返回的订单id
+     * @param wait 尚未出结果时最多等待的毫秒数，0表示立即返回
+     * @return 订单结果，PENDING、SUCCESS、FAILED、UNKNOWN
+     */
+    @GetMapping("{id}/status")
+    public DeferredResult<Result> queryOrderStatus(@PathVariable("id") Long orderId,
+                                                   @RequestParam(value = "wait", defaultValue = "0") Long wait) {
+        // 只能查询自己的订单，超时回调不在请求线程中，用户在这里取出
+        Long userId = UserHolder.getUser().getId();
+        return seckillResultNotifier.await(userId, orderId, wait, id -> voucherOrderService.queryOrderResult(userId, id));
+    }
+
+    /**
+     * 查询订单
+     * @param orderId 订单id
+     * @return 订单详情
+     */
+    @GetMapping("{id}")
+    public Result queryOrder(@PathVariable("id") Long orderId) {
+        return voucherOrderService.queryOrder(orderId);
+    }
+
+    /**
+     * 支付订单
+     * @param orderId 订单id
+     * @param payType 支付方式 1：余额支付；2：支付宝；3：微信
+     * @return 无
+     */
+    @PostMapping("{id}/pay")
+    public Result payOrder(@PathVariable("id") Long orderId,
+                           @RequestParam(value = "payType", defaultValue = "1") Integer payType) {
+        return voucherOrderService.payOrder(orderId, payType);
+    }
+
+    /**
+     * 订单队列状态：长度、未确认数、未投递数和积压
+     */
+    @GetMapping("stream/stats")
+    public Result queryStreamStats() {
+        return Result.ok(orderStreamMonitor.getStats());
+    }
 }
@@ -0,0 +1,19 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 一张秒杀券的对账结果
+ */
+@Data
+public class ReconcileReport {
+    private Long voucherId;
+    // redis中已下单、数据库中确认丢失并重新投递到消息队列的订单数
+    private Integer republished = 0;
+    // redis中已下单、数据库中暂时还没有的订单数，可能还在消息队列中
+    private Integer suspected = 0;
+    // 数据库中有订单、redis中没有记录，补写到redis的用户数
+    private Integer restoredToRedis = 0;
+    // 对redis库存的修正量
+    private Long stockAdjusted = 0L;
+}
@@ -0,0 +1,43 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 秒杀订单的异步落库结果
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeckillResultDTO {
+    public static final String PENDING = "PENDING";
+    public static final String SUCCESS = "SUCCESS";
+    public static final String FAILED = "FAILED";
+    public static final String CANCELLED = "CANCELLED";
+    public static final String UNKNOWN = "UNKNOWN";
+
+    private Long orderId;
+    // PENDING：排队中；SUCCESS：下单成功；FAILED：下单失败；CANCELLED：超时未支付已取消；UNKNOWN：结果已过期或订单不存在
+    private String status;
+    // 失败原因
+    private String reason;
+
+    /**
+     * redis中保存的格式为 状态 或 FAILED:原因
+     */
+    public static SeckillResultDTO parse(Long orderId, String value) {
+        if (value == null) {
+            return new SeckillResultDTO(orderId, UNKNOWN, null);
+        }
+        int idx = value.indexOf(':');
+        if (idx < 0) {
+            return new SeckillResultDTO(orderId, value, null);
+        }
+        return new SeckillResultDTO(orderId, value.substring(0, idx), value.substring(idx + 1));
+    }
+
+    public boolean isFinished() {
+        return SUCCESS.equals(status) || FAILED.equals(status) || CANCELLED.equals(status);
+    }
+}
@@ -0,0 +1,50 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.utils.Metrics;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按controller方法统计请求延迟
+ * 异步请求会再分派一次，开始时间只在第一次分派时记录，afterCompletion在最后一次分派结束时执行
+ */
+public class MetricsInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String START_ATTRIBUTE = MetricsInterceptor.class.getName() + ".start";
+
+    private final Metrics.Family<Metrics.Histogram> requestSeconds;
+    // 方法 -> 标签值，避免每次请求拼接字符串
+    private final Map<Method, String> handlerNames = new ConcurrentHashMap<>();
+
+    public MetricsInterceptor(Metrics metrics) {
+        this.requestSeconds = metrics.histogram("hmdp_http_request_seconds", "controller方法的请求延迟", "handler");
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (request.getAttribute(START_ATTRIBUTE) == null) {
+            request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
+        Object start = request.getAttribute(START_ATTRIBUTE);
+        if (start == null || !(handler instanceof HandlerMethod)) {
+            return;
+        }
+        Method method = ((HandlerMethod) handler).getMethod();
+        String name = handlerNames.get(method);
+        if (name == null) {
+            name = handlerNames.computeIfAbsent(method, m -> m.getDeclaringClass().getSimpleName() + "." + m.getName());
+        }
+        requestSeconds.get(name).recordSince((Long) start);
+    }
+}
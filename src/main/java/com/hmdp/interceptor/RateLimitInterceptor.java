@@ -0,0 +1,95 @@
+package com.hmdp.interceptor;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.RateLimiter;
+import com.hmdp.utils.UserHolder;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private static final String TOO_MANY_REQUESTS = JSONUtil.toJsonStr(Result.fail("请求过于频繁，请稍后再试"));
+
+    private final String name;
+    private final RateLimiter rateLimiter;
+    private final Set<String> trustedProxies;
+    private final RateLimitRule[] rules;
+
+    /**
+     * @param name           接口名称，作为限流key的一部分
+     * @param rateLimiter    限流器
+     * @param trustedProxies 可信的反向代理地址，只有来自这些地址的请求才读取X-Real-IP
+     * @param rules          限流规则，全部通过才放行
+     */
+    public RateLimitInterceptor(String name, RateLimiter rateLimiter, Set<String> trustedProxies, RateLimitRule... rules) {
+        this.name = name;
+        this.rateLimiter = rateLimiter;
+        this.trustedProxies = trustedProxies;
+        this.rules = rules;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 异步接口完成后会再分派一次请求，已经在第一次分派时限流过
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        for (RateLimitRule rule : rules) {
+            // 1.取出规则对应维度的值，取不到则跳过该规则
+            String value = resolve(rule.getDimension(), request);
+            if (StrUtil.isBlank(value)) {
+                continue;
+            }
+            // 2.判断是否超过限制
+            // 同一维度可以有多个不同窗口的规则，key中带上窗口大小区分
+            String key = name + ":" + rule.getDimension().name().toLowerCase() + ":"
+                    + rule.getWindowMillis() + ":" + value;
+            if (!rateLimiter.tryAcquire(key, rule.getLimit(), rule.getWindowMillis())) {
+                response.setStatus(429);
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+                response.getWriter().write(TOO_MANY_REQUESTS);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String resolve(RateLimitRule.Dimension dimension, HttpServletRequest request) {
+        switch (dimension) {
+            case IP:
+                return clientIp(request);
+            case PHONE:
+                return request.getParameter("phone");
+            case USER:
+                UserDTO user = UserHolder.getUser();
+                return user == null ? null : String.valueOf(user.getId());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 只有直接来源是可信代理时，才取代理设置的X-Real-IP
+     * 客户端直连时请求头可以随意伪造，每次换一个值就能绕过按ip限流
+     */
+    private String clientIp(HttpServletRequest request) {
+        String remoteAddr = request.getRemoteAddr();
+        if (trustedProxies.contains(remoteAddr)) {
+            String ip = request.getHeader("X-Real-IP");
+            if (StrUtil.isNotBlank(ip)) {
+                return ip.trim();
+            }
+        }
+        return remoteAddr;
+    }
+}
@@ -0,0 +1,34 @@
+package com.hmdp.interceptor;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 限流规则：在window时间内，同一个维度的值最多放行limit次
+ */
+@Getter
+@AllArgsConstructor
+public class RateLimitRule {
+
+    /**
+     * 限流的维度
+     */
+    public enum Dimension {
+        // 客户端ip
+        IP,
+        // 请求参数中的手机号
+        PHONE,
+        // 登录用户id
+        USER
+    }
+
+    private final Dimension dimension;
+    private final int limit;
+    private final long windowMillis;
+
+    public static RateLimitRule of(Dimension dimension, int limit, long window, TimeUnit unit) {
+        return new RateLimitRule(dimension, limit, unit.toMillis(window));
+    }
+}
@@ -1,26 +1,38 @@
 package com.hmdp.interceptor;
 
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.LoginUserCache;
+import com.hmdp.utils.RedisBatch;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SignedTokenHelper;
 import com.hmdp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-public class RefreshTokenInterceptor implements HandlerInterceptor {
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
 
 
     private StringRedisTemplate stringRedisTemplate;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
+    private LoginUserCache loginUserCache;
+
+    private SignedTokenHelper signedTokenHelper;
+
+    private RedisBatch redisBatch;
+
+    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate, LoginUserCache loginUserCache,
+                                   SignedTokenHelper signedTokenHelper, RedisBatch redisBatch) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.redisBatch = redisBatch;
+        this.loginUserCache = loginUserCache;
+        this.signedTokenHelper = signedTokenHelper;
     }
 
     @Override
@@ -30,26 +42,65 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         if (StrUtil.isBlank(token)) {
             return true;
         }
-        // 2.基于token获取redis中的用户
-        String key = RedisConstants.LOGIN_USER_KEY + token;
-        Map<Object,Object> userMap = stringRedisTemplate.opsForHash().entries(key);
-        // 3.判断
-        if (userMap.isEmpty()) {
+        // 签名token直接在本地校验，不访问redis，也不需要刷新有效期
+        // 只有签名模式才接受签名token，redis模式下按普通token查redis，伪造的token查不到
+        if (signedTokenHelper.isSignedMode() && SignedTokenHelper.isSignedToken(token)) {
+            SignedTokenHelper.TokenInfo info = signedTokenHelper.verify(token);
+            if (info != null) {
+                UserHolder.saveUser(info.getUser());
+            }
             return true;
         }
-        // 4.将Hash数据转为UserDTO对象
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap,new UserDTO(),false);
-        // 5.存在则保存用户信息到ThreadLocal
+        String key = RedisConstants.LOGIN_USER_KEY + token;
+        // 2.先查本地会话缓存，命中则不访问redis
+        UserDTO userDTO = loginUserCache.get(token);
+        if (userDTO == null) {
+            // 3.未命中，基于token获取redis中的用户
+            Map<Object,Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+            if (userMap.isEmpty()) {
+                return true;
+            }
+            // 4.将Hash数据转为UserDTO对象
+            userDTO = toUserDTO(userMap);
+            loginUserCache.put(token, userDTO);
+        }
+        // 5.存在则保存用户信息到请求上下文
         UserHolder.saveUser(userDTO);
-        // 6.刷新token有效期
-        stringRedisTemplate.expire(key,RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        // 6.刷新token有效期，每个token在一个间隔内只刷新一次
+        if (loginUserCache.tryAcquireRefresh(token)) {
+            // token和会话索引一次管道续期，会话索引的有效期跟随最近活跃的会话
+            String indexKey = RedisConstants.LOGIN_USER_TOKENS_KEY + userDTO.getId();
+            long ttl = TimeUnit.MINUTES.toSeconds(RedisConstants.LOGIN_USER_TTL);
+            redisBatch.pipeline(connection -> {
+                connection.expire(key, ttl);
+                connection.expire(indexKey, ttl);
+            });
+        }
         return true;
     }
 
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 异步请求（长轮询）在请求线程上不会执行afterCompletion，这里释放请求线程上的用户
+        UserHolder.removeUser();
+    }
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
         UserHolder.removeUser();
     }
+
+    static UserDTO toUserDTO(Map<Object, Object> userMap) {
+        // 字段固定，直接赋值，避免BeanUtil.fillBeanWithMap的反射开销
+        UserDTO userDTO = new UserDTO();
+        Object id = userMap.get("id");
+        if (id != null) {
+            userDTO.setId(Long.valueOf(id.toString()));
+        }
+        userDTO.setNickName((String) userMap.get("nickName"));
+        userDTO.setIcon((String) userMap.get("icon"));
+        return userDTO;
+    }
 }
 
 
@@ -0,0 +1,45 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.utils.DataSourceRouter;
+import com.hmdp.utils.RequestContext;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 兜底清理请求上下文
+ * 拦截器的afterCompletion在preHandle返回false、抛出异常或请求没有匹配到handler时不一定执行，
+ * 过滤器包在最外层，不论请求怎么结束都会在finally中清理，tomcat线程复用时不会读到上一个请求的用户
+ * 数据源的路由状态（本次请求是否写过数据）也在这里清理
+ */
+public class RequestContextCleanupFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        // 进入时也清理一次，防止线程上残留其它代码绑定的上下文
+        RequestContext.clear();
+        DataSourceRouter.clear();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RequestContext.clear();
+            DataSourceRouter.clear();
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        // 异步请求完成后的再次分派也要清理
+        return false;
+    }
+
+    @Override
+    protected boolean shouldNotFilterErrorDispatch() {
+        return false;
+    }
+}
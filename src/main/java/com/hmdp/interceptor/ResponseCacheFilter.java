@@ -0,0 +1,131 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.utils.Metrics;
+import com.hmdp.utils.ResponseCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 只读GET接口的响应缓存
+ * 1.命中时把缓存的响应体直接写到输出流，请求不再进入DispatcherServlet
+ * 2.请求头If-None-Match与etag相同时返回304，不返回响应体
+ * 3.未命中时执行请求，成功的Result（success为true）写入缓存，失败的结果不缓存
+ * 4.redis不可用时不影响接口本身，读缓存失败直接执行请求，写缓存失败照常返回响应
+ */
+@Slf4j
+public class ResponseCacheFilter extends OncePerRequestFilter {
+
+    // Result的第一个字段是success，jackson按字段声明顺序序列化
+    private static final byte[] SUCCESS_PREFIX = "{\"success\":true".getBytes(StandardCharsets.UTF_8);
+
+    private final ResponseCache responseCache;
+    // 按接口统计：命中hit、304 not_modified、未命中miss、读缓存失败error
+    private final Metrics.Family<Metrics.Counter> responseCacheRequests;
+
+    public ResponseCacheFilter(ResponseCache responseCache, Metrics metrics) {
+        this.responseCache = responseCache;
+        this.responseCacheRequests = metrics.counter("hmdp_response_cache_requests_total", "响应缓存查询次数", "route", "result");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        // 1.只缓存没有参数的GET请求
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        ResponseCache.Route route = HttpMethod.GET.matches(request.getMethod()) && request.getQueryString() == null
+                ? responseCache.match(path) : null;
+        if (route == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        // 2.命中，直接返回；读缓存失败时不缓存，直接执行请求
+        ResponseCache.Entry entry;
+        try {
+            entry = responseCache.get(path);
+        } catch (Exception e) {
+            log.error("读取响应缓存失败，path：{}", path, e);
+            responseCacheRequests.get(route.getName(), "error").increment();
+            chain.doFilter(request, response);
+            return;
+        }
+        if (entry != null) {
+            responseCacheRequests.get(route.getName(), notModified(request, entry.getEtag()) ? "not_modified" : "hit").increment();
+            write(request, response, entry);
+            return;
+        }
+        responseCacheRequests.get(route.getName(), "miss").increment();
+        // 3.未命中，执行请求并缓存成功的响应体
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+        chain.doFilter(request, wrapper);
+        byte[] body = wrapper.getContentAsByteArray();
+        if (wrapper.getStatus() != HttpServletResponse.SC_OK || !startsWith(body, SUCCESS_PREFIX)) {
+            wrapper.copyBodyToResponse();
+            return;
+        }
+        try {
+            entry = responseCache.put(route, path, body);
+        } catch (Exception e) {
+            // 写缓存失败，照常返回已经生成的响应
+            log.error("写入响应缓存失败，path：{}", path, e);
+            wrapper.copyBodyToResponse();
+            return;
+        }
+        wrapper.resetBuffer();
+        write(request, wrapper, entry);
+        wrapper.copyBodyToResponse();
+    }
+
+    private static void write(HttpServletRequest request, HttpServletResponse response, ResponseCache.Entry entry) throws IOException {
+        response.setHeader(HttpHeaders.ETAG, entry.getEtag());
+        // 每次都向服务端验证，数据更新后客户端不会读到旧数据
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        if (notModified(request, entry.getEtag())) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(entry.getBody().length);
+        response.getOutputStream().write(entry.getBody());
+    }
+
+    private static boolean notModified(HttpServletRequest request, String etag) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            // 弱比较，忽略W/前缀
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] body, byte[] prefix) {
+        if (body.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (body[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,186 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.utils.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.scripting.defaults.DefaultParameterHandler;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * SQL耗时统计和慢SQL执行计划采集
+ * 1.按mapper方法记录每次执行的耗时
+ * 2.超过阈值的语句记录日志，并在后台线程中用相同的参数执行EXPLAIN
+ * 3.执行计划中出现全表扫描（type=ALL）、filesort、临时表时告警并计数，用来发现缺少的索引
+ * 同一条SQL在采集间隔内只EXPLAIN一次，队列满时直接丢弃，不影响业务线程
+ * 动态表名插件在StatementHandler.prepare阶段才替换insert/update/delete的表名，
+ * 所以同时拦截prepare，记下实际执行的sql，EXPLAIN的是分表而不是逻辑表
+ */
+@Slf4j
+@Intercepts({
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class, method = "update",
+                args = {MappedStatement.class, Object.class}),
+        @Signature(type = StatementHandler.class, method = "prepare",
+                args = {Connection.class, Integer.class})
+})
+public class SlowSqlInterceptor implements Interceptor {
+
+    // 最多记录的已采集SQL数量，超过后清空重新计算
+    private static final int MAX_EXPLAINED = 10_000;
+
+    // 当前线程最近一次prepare的sql，已经替换过表名
+    private static final ThreadLocal<BoundSql> PREPARED_SQL = new ThreadLocal<>();
+
+    private final DataSource dataSource;
+    private final long slowNanos;
+    private final long explainIntervalMillis;
+
+    private final Metrics.Family<Metrics.Histogram> sqlSeconds;
+    private final Metrics.Family<Metrics.Counter> slowSql;
+    private final Metrics.Family<Metrics.Counter> planWarnings;
+
+    // mapper方法id -> 指标标签，如 BlogMapper.selectPage
+    private final Map<String, String> statementNames = new ConcurrentHashMap<>();
+    // sql -> 上次EXPLAIN的时间
+    private final Map<String, Long> explained = new ConcurrentHashMap<>();
+
+    private final ExecutorService explainExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(100), r -> {
+                Thread thread = new Thread(r, "sql-explain");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    public SlowSqlInterceptor(DataSource dataSource, Metrics metrics, long slowMillis, long explainIntervalMinutes) {
+        this.dataSource = dataSource;
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+        this.explainIntervalMillis = TimeUnit.MINUTES.toMillis(explainIntervalMinutes);
+        this.sqlSeconds = metrics.histogram("hmdp_sql_seconds", "mapper方法的SQL执行耗时", "statement");
+        this.slowSql = metrics.counter("hmdp_sql_slow_total", "超过阈值的慢SQL次数", "statement");
+        this.planWarnings = metrics.counter("hmdp_sql_plan_warnings_total", "慢SQL执行计划中的问题", "statement", "problem");
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        if (invocation.getTarget() instanceof StatementHandler) {
+            // 1.本插件在最里层，外层的动态表名插件已经改写了boundSql
+            PREPARED_SQL.set(((StatementHandler) invocation.getTarget()).getBoundSql());
+            return invocation.proceed();
+        }
+        PREPARED_SQL.remove();
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            BoundSql prepared = PREPARED_SQL.get();
+            PREPARED_SQL.remove();
+            Object[] args = invocation.getArgs();
+            MappedStatement ms = (MappedStatement) args[0];
+            String name = statementName(ms.getId());
+            sqlSeconds.get(name).record(elapsed);
+            if (elapsed >= slowNanos) {
+                onSlow(ms, name, args, prepared, elapsed);
+            }
+        }
+    }
+
+    private void onSlow(MappedStatement ms, String name, Object[] args, BoundSql prepared, long elapsed) {
+        slowSql.get(name).increment();
+        Object parameter = args[1];
+        // 2.优先用实际执行的sql，命中缓存或批量复用statement时没有prepare，退回到参数中的boundSql
+        BoundSql boundSql = prepared != null ? prepared
+                : args.length == 6 ? (BoundSql) args[5] : ms.getBoundSql(parameter);
+        String sql = boundSql.getSql().replaceAll("\\s+", " ");
+        log.warn("慢SQL {} 耗时{}ms：{}", name, TimeUnit.NANOSECONDS.toMillis(elapsed), sql);
+        // insert没有执行计划
+        if (ms.getSqlCommandType() == SqlCommandType.INSERT) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long last = explained.get(sql);
+        if (last != null && now - last < explainIntervalMillis) {
+            return;
+        }
+        if (explained.size() >= MAX_EXPLAINED) {
+            explained.clear();
+        }
+        explained.put(sql, now);
+        explainExecutor.execute(() -> explain(ms, name, parameter, boundSql, sql));
+    }
+
+    private void explain(MappedStatement ms, String name, Object parameter, BoundSql boundSql, String sql) {
+        Set<String> problems = new LinkedHashSet<>();
+        StringBuilder plan = new StringBuilder();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement ps = connection.prepareStatement("EXPLAIN " + boundSql.getSql())) {
+            // 参数的绑定方式和mybatis执行时相同
+            new DefaultParameterHandler(ms, parameter, boundSql).setParameters(ps);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String table = rs.getString("table");
+                    String type = rs.getString("type");
+                    String extra = rs.getString("Extra");
+                    plan.append("\n  table=").append(table)
+                            .append(" type=").append(type)
+                            .append(" key=").append(rs.getString("key"))
+                            .append(" rows=").append(rs.getString("rows"))
+                            .append(" extra=").append(extra);
+                    if ("ALL".equals(type)) {
+                        problems.add("full_scan");
+                    }
+                    if (extra != null && extra.contains("Using filesort")) {
+                        problems.add("filesort");
+                    }
+                    if (extra != null && extra.contains("Using temporary")) {
+                        problems.add("temporary");
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("采集慢SQL执行计划异常，sql：{}", sql, e);
+            return;
+        }
+        for (String problem : problems) {
+            planWarnings.get(name, problem).increment();
+        }
+        if (problems.isEmpty()) {
+            log.info("慢SQL {} 执行计划：{}{}", name, sql, plan);
+        } else {
+            log.warn("慢SQL {} 执行计划存在{}，可能缺少索引：{}{}", name, problems, sql, plan);
+        }
+    }
+
+    private String statementName(String id) {
+        String name = statementNames.get(id);
+        if (name == null) {
+            // com.hmdp.mapper.BlogMapper.selectPage -> BlogMapper.selectPage
+            int method = id.lastIndexOf('.');
+            int mapper = id.lastIndexOf('.', method - 1);
+            name = statementNames.computeIfAbsent(id, k -> k.substring(mapper + 1));
+        }
+        return name;
+    }
+}
@@ -0,0 +1,23 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.utils.DataSourceRouter;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+
+/**
+ * 记录当前请求执行过写语句（insert、update、delete）
+ * 之后的查询都访问主库，不会因为副本延迟读不到刚写入的数据
+ */
+@Intercepts(@Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}))
+public class WriteTrackingInterceptor implements Interceptor {
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        DataSourceRouter.markWritten();
+        return invocation.proceed();
+    }
+}
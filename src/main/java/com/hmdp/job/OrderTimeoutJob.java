@@ -0,0 +1,47 @@
+package com.hmdp.job;
+
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_ORDER_TIMEOUT_NAME;
+
+/**
+ * 每秒轮询超时队列，取消超时未支付的订单并归还库存
+ */
+@Slf4j
+@Component
+public class OrderTimeoutJob {
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Scheduled(fixedDelay = 1000L)
+    public void cancelExpiredOrders() {
+        // 多实例部署时只让一个节点执行，取消本身是幂等的，锁只是为了减少重复处理
+        // 锁中保存线程标识，执行超过1分钟锁过期后不会删掉下一个节点的锁
+        SimpleRedisLock lock = new SimpleRedisLock(LOCK_ORDER_TIMEOUT_NAME, stringRedisTemplate);
+        if (!lock.tryLock(TimeUnit.MINUTES.toSeconds(1))) {
+            return;
+        }
+        try {
+            int count = voucherOrderService.cancelExpiredOrders();
+            if (count > 0) {
+                log.info("取消超时未支付订单：{}", count);
+            }
+        } catch (Exception e) {
+            log.error("取消超时订单异常", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
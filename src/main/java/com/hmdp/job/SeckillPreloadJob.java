@@ -0,0 +1,34 @@
+package com.hmdp.job;
+
+import com.hmdp.service.IVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_PRELOAD_AHEAD;
+
+/**
+ * 定时预热即将开始的秒杀，同时在redis故障切换后恢复进行中的秒杀数据
+ * 预热是幂等的，多个节点同时执行也没有问题
+ */
+@Slf4j
+@Component
+public class SeckillPreloadJob {
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Scheduled(fixedDelay = 30_000L, initialDelay = 5_000L)
+    public void preload() {
+        try {
+            int count = voucherService.preloadSeckillVouchers(SECKILL_PRELOAD_AHEAD);
+            if (count > 0) {
+                log.debug("秒杀预热完成，数量：{}", count);
+            }
+        } catch (Exception e) {
+            log.error("秒杀预热异常", e);
+        }
+    }
+}
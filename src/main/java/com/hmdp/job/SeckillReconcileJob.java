@@ -0,0 +1,43 @@
+package com.hmdp.job;
+
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_RECONCILE_NAME;
+
+/**
+ * 定时对账redis和数据库中的秒杀库存与订单
+ */
+@Slf4j
+@Component
+public class SeckillReconcileJob {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Scheduled(fixedDelay = 60_000L, initialDelay = 60_000L)
+    public void reconcile() {
+        // 多实例部署时只让一个节点执行，锁中保存线程标识，执行超过10分钟锁过期后不会删掉下一个节点的锁
+        SimpleRedisLock lock = new SimpleRedisLock(LOCK_RECONCILE_NAME, stringRedisTemplate);
+        if (!lock.tryLock(TimeUnit.MINUTES.toSeconds(10))) {
+            return;
+        }
+        try {
+            seckillVoucherService.reconcileActive();
+        } catch (Exception e) {
+            log.error("秒杀对账异常", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
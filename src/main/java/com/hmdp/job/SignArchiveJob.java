@@ -0,0 +1,47 @@
+package com.hmdp.job;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.hmdp.service.ISignService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.YearMonth;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SIGN_ARCHIVED_KEY;
+import static com.hmdp.utils.RedisConstants.SIGN_ARCHIVED_TTL;
+
+/**
+ * 每晚把上个月的签到位图归档到tb_sign
+ */
+@Slf4j
+@Component
+public class SignArchiveJob {
+
+    @Resource
+    private ISignService signService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Scheduled(cron = "0 30 2 * * ?")
+    public void archiveLastMonth() {
+        YearMonth month = YearMonth.now().minusMonths(1);
+        // 多实例部署时只让一个节点执行，并且同一个月只归档一次
+        String key = SIGN_ARCHIVED_KEY + month;
+        Boolean first = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", SIGN_ARCHIVED_TTL, TimeUnit.DAYS);
+        if (!BooleanUtil.isTrue(first)) {
+            return;
+        }
+        try {
+            signService.archiveMonth(month);
+        } catch (Exception e) {
+            // 归档失败则删除标记，第二天晚上重试
+            stringRedisTemplate.delete(key);
+            log.error("签到归档失败", e);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.ReconcileReport;
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,7 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    ReconcileReport reconcile(Long voucherId);
+
+    void reconcileActive();
 }
@@ -1,10 +1,14 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.dto.SeckillResultDTO;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -17,6 +21,24 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
-    void createVoucherOrder(VoucherOrder voucherOrder);
+    /**
+     * 非阻塞的秒杀，用户由调用方显式传入，不依赖UserHolder
+     */
+    CompletableFuture<Result> seckillVoucherAsync(Long voucherId, UserDTO user);
+
+    Result createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 从数据库查询用户自己的订单结果，不是该用户的订单返回UNKNOWN
+     */
+    SeckillResultDTO queryOrderResult(Long userId, Long orderId);
+
+    Result queryOrder(Long orderId);
+
+    Result payOrder(Long orderId, Integer payType);
+
+    int cancelExpiredOrders();
+
+    boolean cancelOrder(VoucherOrder voucherOrder);
 //    Result createVoucherOrder(Long voucherId);
 }
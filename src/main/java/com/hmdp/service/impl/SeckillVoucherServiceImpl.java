@@ -1,11 +1,35 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.ReconcileReport;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.OrderStreamPartitions;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.VoucherOrderShards;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -14,7 +38,310 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    private static final DefaultRedisScript<List> SNAPSHOT_SCRIPT;
+    static {
+        SNAPSHOT_SCRIPT = new DefaultRedisScript<>();
+        SNAPSHOT_SCRIPT.setResultType(List.class);
+        SNAPSHOT_SCRIPT.setLocation(new ClassPathResource("lua/seckill_snapshot.lua"));
+    }
+
+    // 每批对账的记录数
+    private static final int RECONCILE_BATCH_SIZE = 500;
+    // 批次之间的停顿，避免对账占用太多数据库资源
+    private static final long RECONCILE_BATCH_PAUSE_MILLIS = 20L;
+    // redis中有、数据库中没有的订单超过这个时间仍未落库才认为丢失，留给消息队列消费的时间
+    private static final long RECONCILE_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    // 只对结束时间在这个范围内的秒杀券对账
+    private static final long RECONCILE_LOOKBACK_DAYS = 1L;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    @Resource
+    private OrderStreamPartitions orderStreamPartitions;
+
+    @Resource
+    private VoucherOrderShards voucherOrderShards;
+
+    @Override
+    public void reconcileActive() {
+        // 按voucher_id分页遍历进行中和刚结束的秒杀券
+        LocalDateTime since = LocalDateTime.now().minusDays(RECONCILE_LOOKBACK_DAYS);
+        long lastId = 0;
+        while (true) {
+            List<SeckillVoucher> vouchers = query()
+                    .select("voucher_id")
+                    .gt("voucher_id", lastId)
+                    .ge("end_time", since)
+                    .orderByAsc("voucher_id")
+                    .last("limit " + RECONCILE_BATCH_SIZE)
+                    .list();
+            for (SeckillVoucher voucher : vouchers) {
+                try {
+                    ReconcileReport report = reconcile(voucher.getVoucherId());
+                    log.info("秒杀券对账完成：{}", report);
+                } catch (Exception e) {
+                    log.error("秒杀券对账失败，voucherId：{}", voucher.getVoucherId(), e);
+                }
+            }
+            if (vouchers.size() < RECONCILE_BATCH_SIZE) {
+                break;
+            }
+            lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+        }
+    }
+
+    /**
+     * 对账一张秒杀券，redis和数据库两边都分批流式读取
+     * 1.redis已下单集合 -> 数据库订单：数据库中缺失超过宽限期的订单重新投递到消息队列
+     * 2.数据库订单 -> redis已下单集合：redis中缺失的用户补写回去，防止重复下单
+     * 3.库存：redis的 库存+已下单数 应当等于数据库的 库存+订单数，不等则修正redis库存
+     */
+    @Override
+    public ReconcileReport reconcile(Long voucherId) {
+        ReconcileReport report = new ReconcileReport();
+        report.setVoucherId(voucherId);
+        String orderKey = orderStreamPartitions.seckillKey(SECKILL_ORDER_KEY, voucherId);
+        String suspectKey = SECKILL_RECONCILE_KEY + voucherId;
+        // 上一轮发现的疑似丢失订单
+        Map<Object, Object> suspects = new HashMap<>(stringRedisTemplate.opsForHash().entries(suspectKey));
+
+        // 1.redis -> 数据库
+        List<Long> batch = new ArrayList<>(RECONCILE_BATCH_SIZE);
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet()
+                .scan(orderKey, ScanOptions.scanOptions().count(RECONCILE_BATCH_SIZE).build())) {
+            while (cursor.hasNext()) {
+                batch.add(Long.valueOf(cursor.next()));
+                if (batch.size() >= RECONCILE_BATCH_SIZE) {
+                    reconcileRedisBatch(voucherId, batch, suspects, report);
+                    batch.clear();
+                    pause();
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("扫描已下单用户失败，voucherId：" + voucherId, e);
+        }
+        if (!batch.isEmpty()) {
+            reconcileRedisBatch(voucherId, batch, suspects, report);
+        }
+
+        // 2.数据库 -> redis，订单按用户分表，逐个分片按订单id分页
+        for (int shard = 0; shard < voucherOrderShards.getShards(); shard++) {
+            long lastId = 0L;
+            while (true) {
+                long afterId = lastId;
+                List<VoucherOrder> orders = VoucherOrderShards.call(shard, () -> voucherOrderMapper.selectList(
+                        new QueryWrapper<VoucherOrder>()
+                                .select("id", "user_id")
+                                .eq("voucher_id", voucherId)
+                                .gt("id", afterId)
+                                .orderByAsc("id")
+                                .last("limit " + RECONCILE_BATCH_SIZE)));
+                if (orders.isEmpty()) {
+                    break;
+                }
+                reconcileDbBatch(orderKey, orders, report);
+                if (orders.size() < RECONCILE_BATCH_SIZE) {
+                    break;
+                }
+                lastId = orders.get(orders.size() - 1).getId();
+                pause();
+            }
+        }
+
+        // 3.库存，两边都取一致的快照，在途的订单不影响两边各自的总和
+        reconcileStock(voucherId, orderKey, report);
+        return report;
+    }
+
+    private void reconcileRedisBatch(Long voucherId, List<Long> userIds, Map<Object, Object> suspects, ReconcileReport report) {
+        // 1.查询这批用户中已经落库的，按用户所在分片分组查询
+        Map<Integer, List<Long>> usersByShard = new HashMap<>();
+        for (Long userId : userIds) {
+            usersByShard.computeIfAbsent(voucherOrderShards.shardOfUser(userId), k -> new ArrayList<>()).add(userId);
+        }
+        Set<Long> persisted = new HashSet<>();
+        usersByShard.forEach((shard, shardUserIds) -> {
+            List<VoucherOrder> orders = VoucherOrderShards.call(shard, () -> voucherOrderMapper.selectList(
+                    new QueryWrapper<VoucherOrder>()
+                            .select("user_id")
+                            .eq("voucher_id", voucherId)
+                            .in("user_id", shardUserIds)));
+            for (VoucherOrder order : orders) {
+                persisted.add(order.getUserId());
+            }
+        });
+        String suspectKey = SECKILL_RECONCILE_KEY + voucherId;
+        long now = System.currentTimeMillis();
+        Map<String, String> newSuspects = new HashMap<>();
+        List<String> resolved = new ArrayList<>();
+        List<Long> lost = new ArrayList<>();
+        for (Long userId : userIds) {
+            String field = userId.toString();
+            Object firstSeen = suspects.get(field);
+            if (persisted.contains(userId)) {
+                // 已经落库，之前的疑似记录可以删除
+                if (firstSeen != null) {
+                    resolved.add(field);
+                }
+            } else if (firstSeen == null) {
+                // 第一次发现，先记录下来，可能还在消息队列中
+                newSuspects.put(field, String.valueOf(now));
+            } else if (now - Long.parseLong(firstSeen.toString()) >= RECONCILE_GRACE_MILLIS) {
+                // 超过宽限期仍未落库，认为消息已丢失
+                lost.add(userId);
+                resolved.add(field);
+            } else {
+                report.setSuspected(report.getSuspected() + 1);
+            }
+        }
+        // 2.一次管道执行这一批的补偿动作
+        if (newSuspects.isEmpty() && resolved.isEmpty() && lost.isEmpty() && persisted.isEmpty()) {
+            return;
+        }
+        List<Long> orderIds = lostOrderIds(voucherId, lost);
+        String orderIdKey = orderStreamPartitions.seckillKey(SECKILL_ORDER_ID_KEY, voucherId);
+        String streamKey = orderStreamPartitions.streamKeyOf(voucherId);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            // 已经落库的不再需要记录订单id
+            if (!persisted.isEmpty()) {
+                connection.hDel(bytes(orderIdKey), persisted.stream().map(id -> bytes(id.toString())).toArray(byte[][]::new));
+            }
+            for (int i = 0; i < lost.size(); i++) {
+                Map<byte[], byte[]> body = new HashMap<>();
+                body.put(bytes("userId"), bytes(lost.get(i).toString()));
+                body.put(bytes("voucherId"), bytes(voucherId.toString()));
+                body.put(bytes("id"), bytes(orderIds.get(i).toString()));
+                connection.streamCommands().xAdd(StreamRecords.rawBytes(body).withStreamKey(bytes(streamKey)));
+            }
+            if (!newSuspects.isEmpty()) {
+                Map<byte[], byte[]> fields = new HashMap<>();
+                newSuspects.forEach((k, v) -> fields.put(bytes(k), bytes(v)));
+                connection.hMSet(bytes(suspectKey), fields);
+                connection.expire(bytes(suspectKey), TimeUnit.DAYS.toSeconds(1));
+            }
+            if (!resolved.isEmpty()) {
+                connection.hDel(bytes(suspectKey), resolved.stream().map(SeckillVoucherServiceImpl::bytes).toArray(byte[][]::new));
+            }
+            return null;
+        });
+        report.setSuspected(report.getSuspected() + newSuspects.size());
+        report.setRepublished(report.getRepublished() + lost.size());
+        if (!lost.isEmpty()) {
+            log.warn("秒杀订单丢失，已重新投递，voucherId：{}，userIds：{}", voucherId, lost);
+        }
+    }
+
+    /**
+     * 丢失订单沿用seckill.lua中记录的订单id，客户端拿着这个id查询结果
+     * 记录之前下单的用户没有订单id，只能重新生成
+     */
+    private List<Long> lostOrderIds(Long voucherId, List<Long> lost) {
+        List<Long> orderIds = new ArrayList<>(lost.size());
+        if (lost.isEmpty()) {
+            return orderIds;
+        }
+        List<Object> recorded = stringRedisTemplate.opsForHash().multiGet(orderStreamPartitions.seckillKey(SECKILL_ORDER_ID_KEY, voucherId),
+                lost.stream().map(id -> (Object) id.toString()).collect(Collectors.toList()));
+        for (int i = 0; i < lost.size(); i++) {
+            Object orderId = recorded.get(i);
+            orderIds.add(orderId != null ? Long.valueOf(orderId.toString())
+                    : redisIdWorker.nextId("order", voucherOrderShards.shardOfUser(lost.get(i))));
+        }
+        return orderIds;
+    }
+
+    private void reconcileDbBatch(String orderKey, List<VoucherOrder> orders, ReconcileReport report) {
+        // 1.一次管道判断这批用户是否都在redis已下单集合中
+        List<Object> members = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (VoucherOrder order : orders) {
+                connection.sIsMember(bytes(orderKey), bytes(order.getUserId().toString()));
+            }
+            return null;
+        });
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            if (!Boolean.TRUE.equals(members.get(i))) {
+                missing.add(orders.get(i).getUserId().toString());
+            }
+        }
+        // 2.补写回redis，防止这些用户再次下单
+        if (!missing.isEmpty()) {
+            stringRedisTemplate.opsForSet().add(orderKey, missing.toArray(new String[0]));
+            report.setRestoredToRedis(report.getRestoredToRedis() + missing.size());
+            log.warn("redis中缺失已下单用户，已补写，key：{}，userIds：{}", orderKey, missing);
+        }
+    }
+
+    private void reconcileStock(Long voucherId, String orderKey, ReconcileReport report) {
+        // 1.redis快照，库存和已下单数在lua中总是同时变化，两者之和不受并发秒杀影响
+        // 超时取消先提交数据库、再归还redis库存，两步之间两边的和不一致，有取消在途时跳过
+        String stockKey = orderStreamPartitions.seckillKey(SECKILL_STOCK_KEY, voucherId);
+        List<String> keys = Arrays.asList(stockKey, orderKey, orderStreamPartitions.seckillKey(ORDER_CANCELLING_KEY, voucherId));
+        Long redisTotal = redisStockTotal(keys);
+        if (redisTotal == null) {
+            return;
+        }
+        // 2.数据库快照，扣库存和写订单在同一个事务中，一条语句读取保证一致
+        // 订单分表在同一个库中，子查询中直接写出所有分片的表
+        StringJoiner orders = new StringJoiner(" + ", "(", ") AS orders");
+        for (int shard = 0; shard < voucherOrderShards.getShards(); shard++) {
+            orders.add("(SELECT COUNT(*) FROM " + VoucherOrderShards.table(shard)
+                    + " o WHERE o.voucher_id = tb_seckill_voucher.voucher_id)");
+        }
+        Map<String, Object> row = getMap(new QueryWrapper<SeckillVoucher>()
+                .select("stock", orders.toString())
+                .eq("voucher_id", voucherId));
+        if (row == null) {
+            return;
+        }
+        long dbTotal = ((Number) row.get("stock")).longValue() + ((Number) row.get("orders")).longValue();
+        // 3.数据库快照之后再取一次redis快照，两次之间完成了取消（和数据库快照的先后无法确定）时和会变化，跳过
+        // 在第一次快照前开始、第二次快照后结束的取消，第二次快照时取消标记还在，同样跳过
+        if (!redisTotal.equals(redisStockTotal(keys))) {
+            return;
+        }
+        // 4.以数据库为准修正redis库存，INCRBY不会覆盖并发秒杀的扣减
+        long delta = dbTotal - redisTotal;
+        if (delta != 0) {
+            stringRedisTemplate.opsForValue().increment(stockKey, delta);
+            report.setStockAdjusted(delta);
+            log.warn("redis库存与数据库不一致，已修正，voucherId：{}，修正量：{}", voucherId, delta);
+        }
+    }
+
+    /**
+     * redis中库存与已下单数之和
+     * @return 库存不在redis中（交给预热处理）或有取消在途时返回null
+     */
+    private Long redisStockTotal(List<String> keys) {
+        List<?> snapshot = stringRedisTemplate.execute(SNAPSHOT_SCRIPT, keys);
+        if (snapshot == null || snapshot.size() < 3 || ((Number) snapshot.get(2)).longValue() > 0) {
+            return null;
+        }
+        return ((Number) snapshot.get(0)).longValue() + ((Number) snapshot.get(1)).longValue();
+    }
+
+    private static void pause() {
+        try {
+            Thread.sleep(RECONCILE_BATCH_PAUSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
 }
@@ -7,6 +7,7 @@ import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ResponseCache;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -31,6 +32,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private ResponseCache responseCache;
+
 
 
     public ShopServiceImpl(StringRedisTemplate stringRedisTemplate) {
@@ -90,8 +94,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.fail("店铺id不能为空");
         }
         updateById(shop);
-        // 2.删除缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + id);
+        // 2.删除缓存，包括各节点热点key的本地缓存；响应缓存在事务提交后删除
+        cacheClient.delete(RedisConstants.CACHE_SHOP_KEY + id);
+        responseCache.evict("/shop/" + id);
 
         return Result.ok();
     }
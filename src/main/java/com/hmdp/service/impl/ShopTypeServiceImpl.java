@@ -5,6 +5,7 @@ import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.RedisBatch;
 import com.hmdp.utils.RedisConstants;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
@@ -27,6 +28,9 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisBatch redisBatch;
+
     @Override
     public List<ShopType> queryTypeList() {
         // 1.从redis中查找数据
@@ -44,12 +48,15 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
 
         // 3.找不到去mysql查
         List<ShopType> typeList = query().orderByAsc("sort").list();
-        // 4.保存到redis
-        List<String> list1 = new ArrayList<>();
-        for (ShopType shopType : typeList) {
-            list1.add(JSONUtil.toJsonStr(shopType));
+        // 4.保存到redis，按查询顺序从右侧写入
+        // 先删除再写入放在一个事务中一次发送，并发重建时列表不会重复
+        if (!typeList.isEmpty()) {
+            String[] values = typeList.stream().map(JSONUtil::toJsonStr).toArray(String[]::new);
+            redisBatch.transaction(connection -> {
+                connection.del(key);
+                connection.rPush(key, values);
+            });
         }
-        stringRedisTemplate.opsForList().leftPushAll(key, list1);
         // 5.返回数据
         return typeList;
     }
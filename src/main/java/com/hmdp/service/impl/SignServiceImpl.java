@@ -0,0 +1,210 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Sign;
+import com.hmdp.mapper.SignMapper;
+import com.hmdp.service.ISignService;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.framework.AopContext;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * <p>
+ *  服务实现类
+ * </p>
+ *
+ * @author 虎哥
+ * @since 2021-12-22
+ */
+@Slf4j
+@Service
+public class SignServiceImpl extends ServiceImpl<SignMapper, Sign> implements ISignService {
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+
+    // 每批归档的用户数
+    private static final int ARCHIVE_BATCH_SIZE = 500;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Override
+    public Result sign() {
+        // 1.获取当前登录用户
+        Long userId = UserHolder.getUser().getId();
+        // 2.拼接key sign:{userId}:{yyyyMM}
+        LocalDateTime now = LocalDateTime.now();
+        String key = signKey(userId, YearMonth.from(now));
+        // 3.今天是本月的第几天，写入对应的bit SETBIT key offset 1
+        int dayOfMonth = now.getDayOfMonth();
+        stringRedisTemplate.opsForValue().setBit(key, dayOfMonth - 1, true);
+        return Result.ok();
+    }
+
+    @Override
+    public Result signCount() {
+        // 1.获取本月截止今天为止的所有签到记录 BITFIELD key GET u{dayOfMonth} 0
+        Long userId = UserHolder.getUser().getId();
+        LocalDateTime now = LocalDateTime.now();
+        String key = signKey(userId, YearMonth.from(now));
+        int dayOfMonth = now.getDayOfMonth();
+        List<Long> result = stringRedisTemplate.opsForValue().bitField(
+                key,
+                BitFieldSubCommands.create()
+                        .get(BitFieldSubCommands.BitFieldType.unsigned(dayOfMonth)).valueAt(0)
+        );
+        if (result == null || result.isEmpty() || result.get(0) == null) {
+            return Result.ok(0);
+        }
+        // 2.从今天开始向前逐位统计，直到遇到第一个未签到的日期
+        long num = result.get(0);
+        int count = 0;
+        while ((num & 1) == 1) {
+            count++;
+            num >>>= 1;
+        }
+        return Result.ok(count);
+    }
+
+    @Override
+    public Result signMonthCount() {
+        // BITCOUNT key 统计本月签到总天数
+        Long userId = UserHolder.getUser().getId();
+        byte[] key = signKey(userId, YearMonth.now()).getBytes(StandardCharsets.UTF_8);
+        Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.bitCount(key));
+        return Result.ok(count == null ? 0 : count);
+    }
+
+    /**
+     * 将某个月的签到位图批量归档到tb_sign，可重复执行
+     * @param month 要归档的月份
+     * @return 归档的签到记录数
+     */
+    @Override
+    public int archiveMonth(YearMonth month) {
+        String suffix = ":" + month.format(MONTH_FORMATTER);
+        ISignService proxy = (ISignService) AopContext.currentProxy();
+        List<String> keys = new ArrayList<>(ARCHIVE_BATCH_SIZE);
+        int total = 0;
+        // 1.SCAN sign:*:{yyyyMM}，避免KEYS阻塞redis
+        ScanOptions options = ScanOptions.scanOptions().match(USER_SIGN_KEY + "*" + suffix).count(1000).build();
+        try (Cursor<byte[]> cursor = stringRedisTemplate.execute(
+                (RedisCallback<Cursor<byte[]>>) connection -> connection.scan(options))) {
+            while (cursor != null && cursor.hasNext()) {
+                keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                if (keys.size() >= ARCHIVE_BATCH_SIZE) {
+                    total += archiveKeys(proxy, month, keys);
+                    keys.clear();
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("签到归档失败：" + month, e);
+        }
+        if (!keys.isEmpty()) {
+            total += archiveKeys(proxy, month, keys);
+        }
+        log.info("签到归档完成，month：{}，记录数：{}", month, total);
+        return total;
+    }
+
+    private int archiveKeys(ISignService proxy, YearMonth month, List<String> keys) {
+        // 2.一次管道读取整批位图，每个用户一个月只占31个bit
+        List<Object> bitmaps = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.get(key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+        List<Long> userIds = new ArrayList<>(keys.size());
+        List<Sign> signs = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Long userId = parseUserId(keys.get(i));
+            Object bitmap = bitmaps.get(i);
+            if (userId == null || !(bitmap instanceof byte[])) {
+                continue;
+            }
+            userIds.add(userId);
+            // 3.把位图展开为每天一行
+            byte[] bytes = (byte[]) bitmap;
+            int days = month.lengthOfMonth();
+            for (int day = 1; day <= days; day++) {
+                int offset = day - 1;
+                if (offset / 8 >= bytes.length) {
+                    break;
+                }
+                // redis位图offset 0 对应第一个字节的最高位
+                if ((bytes[offset / 8] & (0x80 >>> (offset % 8))) != 0) {
+                    signs.add(new Sign()
+                            .setUserId(userId)
+                            .setYear(month.getYear())
+                            .setMonth(month.getMonthValue())
+                            .setDate(month.atDay(day))
+                            .setIsBackup(false));
+                }
+            }
+        }
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        // 4.先删后插，保证重复归档不会产生重复数据
+        proxy.archiveBatch(month, userIds, signs);
+        // 5.归档后的位图只保留一段时间，供近期查询
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.expire(key.getBytes(StandardCharsets.UTF_8), TimeUnit.DAYS.toSeconds(SIGN_ARCHIVED_TTL));
+            }
+            return null;
+        });
+        return signs.size();
+    }
+
+    @Override
+    @Transactional
+    public void archiveBatch(YearMonth month, List<Long> userIds, List<Sign> signs) {
+        remove(new QueryWrapper<Sign>()
+                .eq("year", month.getYear())
+                .eq("month", month.getMonthValue())
+                .in("user_id", userIds));
+        if (!signs.isEmpty()) {
+            saveBatch(signs, ARCHIVE_BATCH_SIZE);
+        }
+    }
+
+    private static Long parseUserId(String key) {
+        // sign:{userId}:{yyyyMM}
+        int end = key.lastIndexOf(':');
+        if (end <= USER_SIGN_KEY.length()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(key.substring(USER_SIGN_KEY.length(), end));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(MONTH_FORMATTER);
+    }
+}
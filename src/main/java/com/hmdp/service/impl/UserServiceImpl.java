@@ -11,16 +11,29 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.LoginUserCache;
+import com.hmdp.utils.RedisBatch;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SignedTokenHelper;
+import com.hmdp.utils.TokenDenylist;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -38,9 +51,28 @@ import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 @Service
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IUserService {
 
+    private static final DefaultRedisScript<List> TAKE_SESSIONS_SCRIPT;
+    static {
+        TAKE_SESSIONS_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SESSIONS_SCRIPT.setResultType(List.class);
+        TAKE_SESSIONS_SCRIPT.setLocation(new ClassPathResource("lua/session_take_all.lua"));
+    }
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SignedTokenHelper signedTokenHelper;
+
+    @Resource
+    private TokenDenylist tokenDenylist;
+
+    @Resource
+    private LoginUserCache loginUserCache;
+
+    @Resource
+    private RedisBatch redisBatch;
+
     @Override
     public Result sendCode(String phone , HttpSession session) {
         // 1.校验手机号
@@ -78,25 +110,158 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if (user == null) {
             user = createUserWithPhone(phone);
         }
-        // 5.保存用户信息到redis
-        // 5.1随机生成token作为登录令牌
-        String token = UUID.randomUUID().toString(true);
-        // 5.2将User对象转为HashMap存储
         UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        Map<String,Object> userMap = BeanUtil.beanToMap(userDTO,new HashMap<>(),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName,fieldValue)->fieldValue.toString())
-        );
-        // 5.3存储
+        // 5.签名token模式，用户信息直接签发在token中，不占用redis
+        if (signedTokenHelper.isSignedMode()) {
+            SignedTokenHelper.TokenInfo info = signedTokenHelper.issue(userDTO);
+            // 记录到用户的会话索引中，用于退出所有设备
+            addUserSession(userDTO.getId(), info.getJti() + ":" + info.getExpireAt());
+            return Result.ok(info.getToken());
+        }
+        // 6.保存用户信息到redis
+        // 6.1随机生成token作为登录令牌
+        String token = UUID.randomUUID().toString(true);
+        // 6.2将User对象转为HashMap存储
+        Map<String,String> userMap = new HashMap<>();
+        BeanUtil.beanToMap(userDTO,new HashMap<>(),
+                CopyOptions.create().setIgnoreNullValue(true)
+        ).forEach((fieldName,fieldValue)->userMap.put(fieldName,fieldValue.toString()));
+        // 6.3存储并设置token有效期，一次往返，事务保证不会留下没有有效期的token
         String tokenKey = LOGIN_USER_KEY + token;
-        stringRedisTemplate.opsForHash().putAll(tokenKey,userMap);
-        // 5.4设置token有效期
-        stringRedisTemplate.expire(tokenKey,LOGIN_USER_TTL, TimeUnit.MINUTES);
+        redisBatch.transaction(connection -> {
+            connection.hMSet(tokenKey, userMap);
+            connection.expire(tokenKey, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL));
+        });
+        // 6.5记录到用户的会话索引中
+        addUserSession(userDTO.getId(), token);
 //        session.setAttribute("user", BeanUtil.copyProperties(user,UserDTO.class));
         return Result.ok(token);
     }
 
+    @Override
+    public Result logout(String token) {
+        Long userId = UserHolder.getUser().getId();
+        String member = revoke(Collections.singletonList(token)).get(0);
+        if (member != null) {
+            stringRedisTemplate.opsForSet().remove(LOGIN_USER_TOKENS_KEY + userId, member);
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result logoutAll() {
+        // 1.从用户的会话索引中取出所有token，不需要扫描login:token:*
+        // 读取和删除在一个lua脚本中完成，期间并发登录的token不会被删掉索引又漏掉吊销
+        Long userId = UserHolder.getUser().getId();
+        String indexKey = LOGIN_USER_TOKENS_KEY + userId;
+        List<String> members = takeUserSessions(indexKey);
+        if (members == null || members.isEmpty()) {
+            return Result.ok();
+        }
+        // 2.索引中的元素包含':'的是签名token的jti:expireAt，其余是redis token
+        List<String> tokens = new ArrayList<>();
+        Map<String, Long> signed = new HashMap<>();
+        for (String member : members) {
+            int idx = member.indexOf(':');
+            if (idx > 0) {
+                signed.put(member.substring(0, idx), Long.valueOf(member.substring(idx + 1)));
+            } else {
+                tokens.add(member);
+            }
+        }
+        // 3.签名token批量加入黑名单
+        if (!signed.isEmpty()) {
+            tokenDenylist.deny(signed);
+        }
+        // 4.redis token一次管道删除，再广播让所有节点失效本地缓存
+        if (!tokens.isEmpty()) {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String t : tokens) {
+                    connection.del((LOGIN_USER_KEY + t).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+            loginUserCache.invalidate(tokens.toArray(new String[0]));
+        }
+        return Result.ok(members.size());
+    }
+
+    /**
+     * 吊销token
+     * @return 每个token在会话索引中对应的元素
+     */
+    private List<String> revoke(List<String> tokens) {
+        List<String> members = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            if (signedTokenHelper.isSignedMode() && SignedTokenHelper.isSignedToken(token)) {
+                SignedTokenHelper.TokenInfo info = signedTokenHelper.parse(token);
+                if (info == null) {
+                    members.add(null);
+                    continue;
+                }
+                tokenDenylist.deny(info.getJti(), info.getExpireAt());
+                members.add(info.getJti() + ":" + info.getExpireAt());
+            } else {
+                stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+                loginUserCache.invalidate(token);
+                members.add(token);
+            }
+        }
+        return members;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> takeUserSessions(String indexKey) {
+        return (List<String>) stringRedisTemplate.execute(TAKE_SESSIONS_SCRIPT, Collections.singletonList(indexKey));
+    }
+
+    private void addUserSession(Long userId, String member) {
+        String indexKey = LOGIN_USER_TOKENS_KEY + userId;
+        // 写入、续期和查询大小一次管道发送
+        List<Object> results = redisBatch.pipeline(connection -> {
+            connection.sAdd(indexKey, member);
+            connection.expire(indexKey, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL));
+            connection.sCard(indexKey);
+        });
+        // 清理索引中已经过期的会话，避免频繁登录的用户索引无限增长
+        Long size = (Long) results.get(2);
+        if (size != null && size > LOGIN_USER_TOKENS_MAX) {
+            pruneUserSessions(indexKey);
+        }
+    }
+
+    private void pruneUserSessions(String indexKey) {
+        Set<String> members = stringRedisTemplate.opsForSet().members(indexKey);
+        if (members == null) {
+            return;
+        }
+        List<String> list = new ArrayList<>(members);
+        List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String member : list) {
+                if (member.indexOf(':') < 0) {
+                    connection.exists((LOGIN_USER_KEY + member).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            return null;
+        });
+        long now = System.currentTimeMillis();
+        List<String> dead = new ArrayList<>();
+        int i = 0;
+        for (String member : list) {
+            int idx = member.indexOf(':');
+            if (idx > 0) {
+                if (Long.parseLong(member.substring(idx + 1)) <= now) {
+                    dead.add(member);
+                }
+            } else if (!Boolean.TRUE.equals(exists.get(i++))) {
+                dead.add(member);
+            }
+        }
+        if (!dead.isEmpty()) {
+            stringRedisTemplate.opsForSet().remove(indexKey, dead.toArray());
+        }
+    }
+
     private User createUserWithPhone(String phone) {
         // 1.创建用户
         User user = new User();
@@ -2,37 +2,61 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillResultDTO;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.Metrics;
+import com.hmdp.utils.OrderStreamMonitor;
+import com.hmdp.utils.OrderStreamPartitions;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillResultNotifier;
 import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
+import com.hmdp.utils.VoucherOrderShards;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.*;
 
 /**
  * <p>
@@ -54,40 +78,126 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
-    private RedissonClient redissonClient;
+    private SeckillResultNotifier seckillResultNotifier;
+    @Resource
+    private OrderStreamMonitor orderStreamMonitor;
+    @Resource
+    private OrderStreamPartitions orderStreamPartitions;
+    @Resource
+    private StatefulRedisConnection<String, String> asyncRedisConnection;
+    @Resource
+    private VoucherOrderShards voucherOrderShards;
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    // 预热时需要提前加载脚本，所以对同包可见
+    static final DefaultRedisScript<Long> SECKILL_SCRIPT;
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setResultType(Long.class);
         SECKILL_SCRIPT.setLocation(new ClassPathResource("lua/seckill.lua"));
     }
 
+    private static final DefaultRedisScript<Long> CANCEL_SCRIPT;
+    static {
+        CANCEL_SCRIPT = new DefaultRedisScript<>();
+        CANCEL_SCRIPT.setResultType(Long.class);
+        CANCEL_SCRIPT.setLocation(new ClassPathResource("lua/order_cancel.lua"));
+    }
+
+    // 每批处理的超时订单数
+    private static final int ORDER_TIMEOUT_BATCH_SIZE = 100;
+    // 每轮最多处理的批数，剩下的留到下一轮，不长时间占用调度线程
+    private static final int ORDER_TIMEOUT_MAX_BATCHES = 10;
+    // 整批都处理失败（如数据库不可用）后暂停的时间，连续失败时翻倍，毫秒
+    private static final long ORDER_TIMEOUT_BACKOFF_MIN_MILLIS = 1000L;
+    private static final long ORDER_TIMEOUT_BACKOFF_MAX_MILLIS = 60_000L;
+
+    private volatile long timeoutBackoffMillis;
+    private volatile long timeoutRetryAt;
+
+    // 代理对象（事务），消费线程中拿不到AopContext，注入懒加载的代理
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
 
-    // 阻塞队列
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    @Resource
+    private Metrics metrics;
+    // 秒杀脚本结果，下标是lua的返回值：0成功、1库存不足、2重复下单、3不在秒杀时间内
+    private Metrics.Counter[] seckillResults;
+    private Metrics.Counter seckillOverloaded;
+    // 消费者每条订单的落库耗时和结果
+    private Metrics.Histogram persistSeconds;
+    private Metrics.Family<Metrics.Counter> persistResults;
+
+    // 每个分区一个消费线程，另外一个线程处理分区之前的旧队列
+    private ExecutorService seckillOrderExecutor;
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHander());
+        Metrics.Family<Metrics.Counter> results = metrics.counter("hmdp_seckill_requests_total", "秒杀请求结果", "result");
+        seckillResults = new Metrics.Counter[]{
+                results.get("ok"), results.get("sold_out"), results.get("duplicate"), results.get("closed")
+        };
+        seckillOverloaded = results.get("overloaded");
+        persistSeconds = metrics.histogram("hmdp_order_persist_seconds", "消费者每条订单的落库耗时").get();
+        persistResults = metrics.counter("hmdp_order_persist_total", "消费者落库结果", "result");
+
+        int partitions = orderStreamPartitions.getPartitions();
+        seckillOrderExecutor = Executors.newFixedThreadPool(partitions + 1);
+        for (int p = 0; p < partitions; p++) {
+            seckillOrderExecutor.submit(new VoucherOrderHander(p));
+        }
+        // 旧的 stream.orders 和不带hash tag的分区队列 stream.orders:p 中可能还有未落库的订单，处理完后线程退出
+        Map<String, String> legacy = new LinkedHashMap<>();
+        legacy.put(ORDER_STREAM_KEY, "c1");
+        for (int p = 0; p < partitions; p++) {
+            legacy.put(ORDER_STREAM_KEY + ":" + p, orderStreamPartitions.consumerName(p));
+        }
+        legacy.keySet().removeIf(key -> !Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)));
+        if (!legacy.isEmpty()) {
+            seckillOrderExecutor.submit(() -> legacy.forEach(this::drainLegacyStream));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        seckillOrderExecutor.shutdownNow();
     }
 
     private class VoucherOrderHander implements Runnable {
 
-        String queueName = "stream.orders";
+        private final int partition;
+        private final String queueName;
+        private final String consumerName;
+
+        VoucherOrderHander(int partition) {
+            this.partition = partition;
+            this.queueName = OrderStreamPartitions.streamKey(partition);
+            this.consumerName = orderStreamPartitions.consumerName(partition);
+        }
 
         @Override
         public void run() {
-            while (true) {
+            boolean owner = false;
+            while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    // 1.从队列中获取订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS streams.order >
+                    // 0.只消费分配给当前实例的分区
+                    if (!orderStreamPartitions.isOwner(partition)) {
+                        owner = false;
+                        Thread.sleep(1000);
+                        continue;
+                    }
+                    if (!owner) {
+                        // 刚接管分区，先处理上一个实例留下的pending-list
+                        owner = true;
+                        handlePendingList(queueName, consumerName, partition);
+                    }
+                    // 1.从队列中获取订单信息 XREADGROUP GROUP g1 c{p} COUNT 1 BLOCK 2000 STREAMS stream.orders:{p} >
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
+                            Consumer.from(ORDER_GROUP, consumerName),
                             StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
                             StreamOffset.create(queueName, ReadOffset.lastConsumed())
                     );
                     // 2.判断消息是否获取成功
-                    if (list.isEmpty() || list == null) {
+                    if (list == null || list.isEmpty()) {
                         // 如果获取失败，说明没有信息，继续下一次循环
                         continue;
                     }
@@ -97,29 +207,33 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                     VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
                     // 创建订单
                     handleVoucherOrder(voucherOrder);
-                    // 4.ACK确认 SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    // 4.ACK确认 SACK stream.orders:{p} g1 id
+                    stringRedisTemplate.opsForStream().acknowledge(queueName, ORDER_GROUP, record.getId());
+                } catch (InterruptedException e) {
+                    return;
                 } catch (Exception e) {
                     log.error("处理订单异常",e);
-                    handlePendingList();
+                    handlePendingList(queueName, consumerName, partition);
                 }
             }
         }
     }
 
-    private void handlePendingList() {
-        String queueName = "stream.orders";
-
-        while (true) {
+    private void handlePendingList(String queueName, String consumerName, int partition) {
+        while (!Thread.currentThread().isInterrupted()) {
+            // 分区已经分配给其它实例，pending-list由新的实例处理
+            if (partition >= 0 && !orderStreamPartitions.isOwner(partition)) {
+                break;
+            }
             try {
-                // 1.从panding-list中获取订单信息 XREADGROUP GROUP g1 c1 COUNT 1 STREAMS streams.order >
+                // 1.从panding-list中获取订单信息 XREADGROUP GROUP g1 c{p} COUNT 1 STREAMS stream.orders:{p} 0
                 List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                        StreamOffset.create(queueName, ReadOffset.lastConsumed())
+                        Consumer.from(ORDER_GROUP, consumerName),
+                        StreamReadOptions.empty().count(1),
+                        StreamOffset.create(queueName, ReadOffset.from("0"))
                 );
                 // 2.判断消息是否获取成功
-                if (list.isEmpty() || list == null) {
+                if (list == null || list.isEmpty()) {
                     // 如果获取失败，说明panding-list没有信息，继续下一次循环
                     break;
                 }
@@ -129,77 +243,214 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
                 // 创建订单
                 handleVoucherOrder(voucherOrder);
-                // 4.ACK确认 SACK stream.orders g1 id
-                stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                // 4.ACK确认 SACK stream.orders:{p} g1 id
+                stringRedisTemplate.opsForStream().acknowledge(queueName, ORDER_GROUP, record.getId());
             } catch (Exception e) {
                 log.error("处理订单异常",e);
                 try {
                     Thread.sleep(20);
                 } catch (InterruptedException ex) {
-                    throw new RuntimeException(ex);
+                    Thread.currentThread().interrupt();
                 }
             }
         }
     }
 
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = voucherOrder.getUserId();
-        // 创建锁对象
-//        SimpleRedisLock lock = new SimpleRedisLock("order:" + userId, stringRedisTemplate);
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        boolean isLock = lock.tryLock();
-        // 无参默认获取锁失败不等待，锁超时时间30s
-        if (!isLock){
-            // 获取锁失败
-            log.error("不允许重复下单");
-            return;
+    /**
+     * 处理旧队列中的订单，pending-list和未投递的都处理完后退出
+     * 多个实例同时处理时会重复消费，落库是幂等的
+     * @param queueName 旧队列的key
+     * @param consumerName 旧队列pending-list所属的消费者
+     */
+    private void drainLegacyStream(String queueName, String consumerName) {
+        try {
+            handlePendingList(queueName, consumerName, -1);
+            while (!Thread.currentThread().isInterrupted()) {
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(ORDER_GROUP, consumerName),
+                        StreamReadOptions.empty().count(1),
+                        StreamOffset.create(queueName, ReadOffset.lastConsumed())
+                );
+                if (list == null || list.isEmpty()) {
+                    log.debug("旧订单队列处理完毕：" + queueName);
+                    return;
+                }
+                MapRecord<String, Object, Object> record = list.get(0);
+                handleVoucherOrder(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+                stringRedisTemplate.opsForStream().acknowledge(queueName, ORDER_GROUP, record.getId());
+            }
+        } catch (Exception e) {
+            // 旧队列没有消费组等，留给对账任务补偿
+            log.error("处理旧订单队列异常，key：" + queueName, e);
         }
+    }
+
+    private void handleVoucherOrder(VoucherOrder voucherOrder) {
+        // 不需要分布式锁：lua脚本已经保证一人一单，数据库的唯一索引兜底，重复消费时插入会失败
+        Result result;
+        long start = System.nanoTime();
         try {
-            // 获取代理对象（事务）
-            proxy.createVoucherOrder(voucherOrder);
+            result = proxy.createVoucherOrder(voucherOrder);
+            persistResults.get(result.getSuccess() ? "success" : "failed").increment();
+            if (result.getSuccess()) {
+                scheduleTimeout(voucherOrder);
+            }
+        } catch (DuplicateKeyException e) {
+            // 订单id重复说明是重复消费，(user_id, voucher_id)重复说明用户已经有订单，都按已处理确认消息
+            int shard = voucherOrderShards.shardOfUser(voucherOrder.getUserId());
+            VoucherOrder persisted = VoucherOrderShards.call(shard, () -> getById(voucherOrder.getId()));
+            result = persisted != null ? Result.ok(voucherOrder.getId()) : Result.fail("用户已经购买了一次");
+            if (persisted != null && persisted.getStatus() == ORDER_STATUS_UNPAID) {
+                // 上次提交后、加入超时队列前宕机时消息没有确认，重新投递时补上，已经在队列中的只是更新截止时间
+                scheduleTimeout(persisted);
+            }
+            persistResults.get("replay").increment();
+            log.debug("订单重复落库，按已处理确认，orderId：" + voucherOrder.getId());
         } finally {
-            // 释放锁
-            lock.unlock();
+            persistSeconds.recordSince(start);
         }
+        // 事务提交后再通知客户端结果
+        seckillResultNotifier.publish(voucherOrder.getUserId(), voucherOrder.getId(), result.getSuccess() ? null : result.getErrorMsg());
+    }
 
+    /**
+     * 加入超时队列，超时未支付自动取消
+     * 在订单事务提交之后执行，提交前加入时，超时任务可能查不到还未提交的订单，直接把它移出队列
+     */
+    private void scheduleTimeout(VoucherOrder voucherOrder) {
+        long createdAt = voucherOrder.getCreateTime() == null ? System.currentTimeMillis()
+                : voucherOrder.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long deadline = createdAt + TimeUnit.MINUTES.toMillis(ORDER_PAY_TIMEOUT);
+        stringRedisTemplate.opsForZSet().add(ORDER_TIMEOUT_KEY, voucherOrder.getId().toString(), deadline);
     }
 
+    /**
+     * 秒杀只操作redis，不需要数据库事务，加事务反而会在整个请求期间占用一个数据库连接
+     */
     @Override
-    @Transactional
     public Result seckillVoucher(Long voucherId) {
+        // 订单队列积压过多时直接拒绝，避免继续堆积
+        if (orderStreamMonitor.isOverloaded(voucherId)) {
+            seckillOverloaded.increment();
+            return Result.fail("系统繁忙，请稍后再试");
+        }
         // 获取用户
         Long userId = UserHolder.getUser().getId();
-        long orderId = redisIdWorker.nextId("order");
+        // 订单id中带上用户所在的分片
+        long orderId = redisIdWorker.nextId("order", voucherOrderShards.shardOfUser(userId));
         // 1.执行lua脚本
         Long result = stringRedisTemplate.execute(
                 SECKILL_SCRIPT,
-                Collections.emptyList(),
+                seckillKeys(voucherId, orderStreamPartitions.partitionOf(voucherId)),
+                seckillArgs(voucherId, userId, orderId)
+        );
+
+        // 2，判断结果为0，成功时记录结果为排队中
+        if (result != null && result == 0L) {
+            seckillResultNotifier.pending(userId, orderId);
+        }
+        return seckillResult(result, orderId);
+    }
+
+    /**
+     * 非阻塞的秒杀：生成id和执行lua脚本都走lettuce的异步接口，回调在lettuce的io线程中执行
+     * 请求线程在返回CompletableFuture后立即释放，不再阻塞等待redis
+     */
+    @Override
+    public CompletableFuture<Result> seckillVoucherAsync(Long voucherId, UserDTO user) {
+        // 订单队列积压过多时直接拒绝，避免继续堆积
+        if (orderStreamMonitor.isOverloaded(voucherId)) {
+            seckillOverloaded.increment();
+            return CompletableFuture.completedFuture(Result.fail("系统繁忙，请稍后再试"));
+        }
+        List<String> keys = seckillKeys(voucherId, orderStreamPartitions.partitionOf(voucherId));
+        return redisIdWorker.nextIdAsync("order", voucherOrderShards.shardOfUser(user.getId()))
+                .thenCompose(orderId -> evalSeckillAsync(keys, seckillArgs(voucherId, user.getId(), orderId))
+                        .thenCompose(result -> result == 0L ? pendingAsync(user.getId(), orderId).thenApply(ok -> result)
+                                : CompletableFuture.completedFuture(result))
+                        .thenApply(result -> seckillResult(result, orderId)));
+    }
+
+    /**
+     * 秒杀脚本的KEYS，都带有优惠券所在分区的hash tag，redis集群中和分区队列在同一个slot
+     * 对同包可见，压测时也用它生成key
+     */
+    static List<String> seckillKeys(Long voucherId, int partition) {
+        return Arrays.asList(
+                OrderStreamPartitions.seckillKey(SECKILL_STOCK_KEY, voucherId, partition),
+                OrderStreamPartitions.seckillKey(SECKILL_ORDER_KEY, voucherId, partition),
+                OrderStreamPartitions.seckillKey(SECKILL_WINDOW_KEY, voucherId, partition),
+                OrderStreamPartitions.seckillKey(SECKILL_ORDER_ID_KEY, voucherId, partition),
+                OrderStreamPartitions.streamKey(partition)
+        );
+    }
+
+    /**
+     * 声明为Object[]，按RedisTemplate.execute的可变参数原样传入
+     */
+    private Object[] seckillArgs(Long voucherId, Long userId, long orderId) {
+        return new Object[]{
                 voucherId.toString(),
                 userId.toString(),
-                String.valueOf(orderId)
-        );
+                String.valueOf(orderId),
+                String.valueOf(System.currentTimeMillis())
+        };
+    }
 
-        // 2，判断结果为0
+    /**
+     * 非阻塞地记录结果为排队中，与SeckillResultNotifier.pending相同
+     */
+    private CompletionStage<String> pendingAsync(Long userId, long orderId) {
+        return asyncRedisConnection.async().set(SeckillResultNotifier.resultKey(userId, orderId), SeckillResultDTO.PENDING,
+                SetArgs.Builder.nx().ex(SECKILL_RESULT_TTL));
+    }
+
+    private CompletableFuture<Long> evalSeckillAsync(List<String> keys, Object[] seckillArgs) {
+        RedisAsyncCommands<String, String> commands = asyncRedisConnection.async();
+        String[] keyArray = keys.toArray(new String[0]);
+        String[] args = Arrays.copyOf(seckillArgs, seckillArgs.length, String[].class);
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        // 1.先用EVALSHA，脚本已经被预热或阻塞接口加载过时不用再传脚本内容
+        commands.<Long>evalsha(SECKILL_SCRIPT.getSha1(), ScriptOutputType.INTEGER, keyArray, args)
+                .whenComplete((result, e) -> {
+                    if (e == null) {
+                        future.complete(result);
+                    } else if (e instanceof RedisNoScriptException) {
+                        // 2.redis中没有脚本，改用EVAL，同时会把脚本缓存下来
+                        commands.<Long>eval(SECKILL_SCRIPT.getScriptAsString(), ScriptOutputType.INTEGER, keyArray, args)
+                                .whenComplete((r, ex) -> {
+                                    if (ex == null) {
+                                        future.complete(r);
+                                    } else {
+                                        future.completeExceptionally(ex);
+                                    }
+                                });
+                    } else {
+                        future.completeExceptionally(e);
+                    }
+                });
+        return future;
+    }
+
+    private Result seckillResult(Long result, long orderId) {
         int r = result.intValue();
+        seckillResults[r].increment();
         if (r != 0) {
-            return Result.fail(r==1?"库存不足":"不能重复下单");
+            return Result.fail(r==1?"库存不足":r==2?"不能重复下单":"秒杀尚未开始或已结束");
         }
-
-        proxy = (IVoucherOrderService)AopContext.currentProxy();
-
         return Result.ok(orderId);
     }
 
+    /**
+     * 幂等的订单落库，重复执行时抛出DuplicateKeyException并回滚
+     * 订单id是主键，(user_id, voucher_id)是唯一索引，不再需要先count再插入
+     * 成功后由调用方在事务提交之后加入超时队列
+     */
+    @Override
     @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
-        // 5.实现一人一单
-        Long userId = voucherOrder.getUserId();
-
-        int count = query().eq("user_id", userId).eq("voucher_id",voucherOrder.getVoucherId()).count();
-        if (count > 0){
-            log.error("用户已经购买了一次");
-            return;
-        }
+    public Result createVoucherOrder(VoucherOrder voucherOrder) {
+        // 5.创建订单，写入用户所在分片的订单表，先插入订单，重复的消息在这里就失败，不会去锁库存行
+        VoucherOrderShards.run(voucherOrderShards.shardOfUser(voucherOrder.getUserId()), () -> save(voucherOrder));
 
         // 6.扣减库存
         boolean success = seckillVoucherService.update()
@@ -208,11 +459,158 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .update();
         if(!success){
             log.error("库存不足");
-            return ;
+            // 回滚已经插入的订单
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return Result.fail("库存不足");
+        }
+        return Result.ok(voucherOrder.getId());
+    }
+
+    @Override
+    public SeckillResultDTO queryOrderResult(Long userId, Long orderId) {
+        // 1.结果已过期时以数据库为准，只查用户自己分片中的订单
+        VoucherOrder order = VoucherOrderShards.call(voucherOrderShards.shardOfUser(userId), () -> getById(orderId));
+        if (order == null || !order.getUserId().equals(userId)) {
+            return new SeckillResultDTO(orderId, SeckillResultDTO.UNKNOWN, null);
+        }
+        // 2.已经超时取消的订单不再算下单成功
+        String status = order.getStatus() == ORDER_STATUS_CANCELLED ? SeckillResultDTO.CANCELLED : SeckillResultDTO.SUCCESS;
+        return new SeckillResultDTO(orderId, status, null);
+    }
+
+    @Override
+    public Result queryOrder(Long orderId) {
+        Long userId = UserHolder.getUser().getId();
+        VoucherOrder order = VoucherOrderShards.call(voucherOrderShards.shardOfUser(userId), () -> getById(orderId));
+        if (order == null || !order.getUserId().equals(userId)) {
+            return Result.fail("订单不存在");
+        }
+        return Result.ok(order);
+    }
+
+    @Override
+    public Result payOrder(Long orderId, Integer payType) {
+        Long userId = UserHolder.getUser().getId();
+        // 1.只有未支付的订单可以支付，条件更新保证和超时取消互斥
+        boolean success = VoucherOrderShards.call(voucherOrderShards.shardOfUser(userId), () -> update()
+                .set("status", ORDER_STATUS_PAID)
+                .set("pay_type", payType)
+                .set("pay_time", LocalDateTime.now())
+                .eq("id", orderId)
+                .eq("user_id", userId)
+                .eq("status", ORDER_STATUS_UNPAID)
+                .update());
+        if (!success) {
+            return Result.fail("订单不存在或已取消");
+        }
+        // 2.移出超时队列
+        stringRedisTemplate.opsForZSet().remove(ORDER_TIMEOUT_KEY, orderId.toString());
+        return Result.ok();
+    }
+
+    @Override
+    public int cancelExpiredOrders() {
+        // 上一轮整批失败，还在退避中
+        if (System.currentTimeMillis() < timeoutRetryAt) {
+            return 0;
+        }
+        IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
+        int total = 0;
+        for (int batch = 0; batch < ORDER_TIMEOUT_MAX_BATCHES; batch++) {
+            // 1.批量取出已经超过支付截止时间的订单
+            Set<String> orderIds = stringRedisTemplate.opsForZSet()
+                    .rangeByScore(ORDER_TIMEOUT_KEY, 0, System.currentTimeMillis(), 0, ORDER_TIMEOUT_BATCH_SIZE);
+            if (orderIds == null || orderIds.isEmpty()) {
+                break;
+            }
+            int failed = 0;
+            for (String orderId : orderIds) {
+                try {
+                    if (expireOrder(proxy, Long.valueOf(orderId))) {
+                        total++;
+                    }
+                } catch (Exception e) {
+                    // 留在超时队列中，下一轮重试
+                    failed++;
+                    log.error("取消超时订单失败，orderId：" + orderId, e);
+                }
+            }
+            // 2.整批都失败时没有订单移出超时队列，再取还是同一批，退避一段时间再重试
+            if (failed == orderIds.size()) {
+                long backoff = timeoutBackoffMillis == 0 ? ORDER_TIMEOUT_BACKOFF_MIN_MILLIS
+                        : Math.min(timeoutBackoffMillis * 2, ORDER_TIMEOUT_BACKOFF_MAX_MILLIS);
+                timeoutBackoffMillis = backoff;
+                timeoutRetryAt = System.currentTimeMillis() + backoff;
+                log.error("超时订单整批取消失败，" + backoff + "ms后重试");
+                return total;
+            }
+            timeoutBackoffMillis = 0;
+            if (orderIds.size() < ORDER_TIMEOUT_BATCH_SIZE) {
+                break;
+            }
         }
+        return total;
+    }
 
-        // 7.创建订单
-        save(voucherOrder);
+    private boolean expireOrder(IVoucherOrderService proxy, Long orderId) {
+        // 超时队列中只有订单id，分片从订单id中取出
+        int shard = VoucherOrderShards.shardOfOrder(orderId);
+        VoucherOrder order = VoucherOrderShards.call(shard, () -> getById(orderId));
+        if (order != null && order.getStatus() == ORDER_STATUS_UNPAID) {
+            // 1.先在redis中记录取消意图，再取消数据库订单
+            // 数据库提交后宕机时，下一轮凭这个标记归还redis库存，对账也会跳过这张券
+            String cancellingKey = orderStreamPartitions.seckillKey(ORDER_CANCELLING_KEY, order.getVoucherId());
+            stringRedisTemplate.opsForSet().add(cancellingKey, orderId.toString());
+            stringRedisTemplate.expire(cancellingKey, ORDER_CANCELLING_TTL, TimeUnit.DAYS);
+            if (!proxy.cancelOrder(order)) {
+                // 取消失败说明刚刚被支付或取消，重新查询状态
+                order = VoucherOrderShards.call(shard, () -> getById(orderId));
+            }
+        }
+        if (order == null || order.getStatus() != ORDER_STATUS_CANCELLED) {
+            // 已支付或订单不存在，移出超时队列并清除取消标记
+            stringRedisTemplate.opsForZSet().remove(ORDER_TIMEOUT_KEY, orderId.toString());
+            if (order != null) {
+                stringRedisTemplate.opsForSet().remove(
+                        orderStreamPartitions.seckillKey(ORDER_CANCELLING_KEY, order.getVoucherId()), orderId.toString());
+            }
+            return false;
+        }
+        // 2.数据库已取消并归还库存，再归还redis库存
+        // 脚本以删除取消标记成功为准，重复执行只归还一次
+        Long restored = stringRedisTemplate.execute(
+                CANCEL_SCRIPT,
+                Arrays.asList(orderStreamPartitions.seckillKey(SECKILL_STOCK_KEY, order.getVoucherId()),
+                        orderStreamPartitions.seckillKey(ORDER_CANCELLING_KEY, order.getVoucherId())),
+                orderId.toString()
+        );
+        // 3.最后移出超时队列，超时队列和库存不在同一个slot，不能放在脚本中
+        // 脚本执行后、移出前宕机时，下一轮重新执行脚本不会重复归还
+        stringRedisTemplate.opsForZSet().remove(ORDER_TIMEOUT_KEY, orderId.toString());
+        return restored != null && restored == 1L;
+    }
+
+    /**
+     * 取消未支付的订单并归还数据库库存
+     * 已下单用户不从redis中移除，超时取消后不能再抢同一张券
+     * @return 是否取消成功
+     */
+    @Override
+    @Transactional
+    public boolean cancelOrder(VoucherOrder voucherOrder) {
+        boolean success = VoucherOrderShards.call(voucherOrderShards.shardOfUser(voucherOrder.getUserId()), () -> update()
+                .set("status", ORDER_STATUS_CANCELLED)
+                .eq("id", voucherOrder.getId())
+                .eq("status", ORDER_STATUS_UNPAID)
+                .update());
+        if (!success) {
+            return false;
+        }
+        seckillVoucherService.update()
+                .setSql("stock = stock + 1")
+                .eq("voucher_id", voucherOrder.getVoucherId())
+                .update();
+        return true;
     }
 
 /**
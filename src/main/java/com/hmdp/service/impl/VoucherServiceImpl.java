@@ -1,18 +1,38 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.OrderStreamPartitions;
+import com.hmdp.utils.ResponseCache;
+import com.hmdp.utils.TransactionUtils;
+import com.hmdp.utils.VoucherOrderShards;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -22,25 +42,90 @@ import java.util.List;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
+    // 秒杀券的类型
+    private static final int SECKILL_TYPE = 1;
+
+    // 每批预热的秒杀券数量
+    private static final int PRELOAD_BATCH_SIZE = 200;
+
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    private String SECKILL_STOCK_KEY = "seckill:stock:";
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private VoucherOrderShards voucherOrderShards;
+
+    @Resource
+    private ResponseCache responseCache;
+
+    @Resource
+    private OrderStreamPartitions orderStreamPartitions;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 1.从redis查询店铺的优惠券列表
+        String key = CACHE_VOUCHER_KEY + shopId;
+        String json = stringRedisTemplate.opsForValue().get(key);
+        List<Voucher> vouchers;
+        if (StrUtil.isNotBlank(json)) {
+            vouchers = JSONUtil.toList(json, Voucher.class);
+        } else {
+            // 2.未命中，查询数据库并写入缓存，没有优惠券的店铺缓存空列表
+            vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(vouchers), CACHE_VOUCHER_TTL, TimeUnit.MINUTES);
+        }
+        // 3.秒杀券的库存以redis为准，一次MGET覆盖
+        overlaySeckillStock(vouchers);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    private void overlaySeckillStock(List<Voucher> vouchers) {
+        List<Voucher> seckillVouchers = new ArrayList<>();
+        List<String> stockKeys = new ArrayList<>();
+        for (Voucher voucher : vouchers) {
+            if (voucher.getType() != null && voucher.getType() == SECKILL_TYPE) {
+                seckillVouchers.add(voucher);
+                stockKeys.add(orderStreamPartitions.seckillKey(SECKILL_STOCK_KEY, voucher.getId()));
+            }
+        }
+        if (stockKeys.isEmpty()) {
+            return;
+        }
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(stockKeys);
+        if (stocks == null) {
+            return;
+        }
+        for (int i = 0; i < seckillVouchers.size(); i++) {
+            String stock = stocks.get(i);
+            // redis中没有库存（尚未预热）时保留数据库中的值
+            if (StrUtil.isNotBlank(stock)) {
+                seckillVouchers.get(i).setStock(Integer.valueOf(stock));
+            }
+        }
+    }
+
+    @Override
+    @Transactional
+    public void addVoucher(Voucher voucher) {
+        // 保存优惠券
+        save(voucher);
+        // 删除店铺的优惠券列表缓存
+        evictVoucherOfShop(voucher.getShopId());
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -54,6 +139,141 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
         // 保存信息到redis
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY+voucher.getId(),voucher.getStock().toString());
+        stringRedisTemplate.opsForValue().set(orderStreamPartitions.seckillKey(SECKILL_STOCK_KEY, voucher.getId()),voucher.getStock().toString());
+        saveSeckillWindow(seckillVoucher);
+        // 删除店铺的优惠券列表缓存
+        evictVoucherOfShop(voucher.getShopId());
+    }
+
+    /**
+     * 删除店铺的优惠券列表缓存，在事务中调用时等到提交之后再删除
+     */
+    private void evictVoucherOfShop(Long shopId) {
+        TransactionUtils.afterCommit(() -> stringRedisTemplate.delete(CACHE_VOUCHER_KEY + shopId));
+        responseCache.evict("/voucher/list/" + shopId);
+    }
+
+    /**
+     * 预热即将开始和进行中的秒杀券：库存、已下单用户、时间窗口、lua脚本、店铺和优惠券缓存
+     * redis故障切换或被清空后，也由这里把数据恢复回来
+     * @param aheadMinutes 预热多少分钟内开始的秒杀
+     * @return 预热的秒杀券数量
+     */
+    @Override
+    public int preloadSeckillVouchers(long aheadMinutes) {
+        // 1.提前加载秒杀脚本，第一次秒杀请求直接EVALSHA命中
+        byte[] script = VoucherOrderServiceImpl.SECKILL_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.scriptLoad(script));
+        // 2.按voucher_id分页查询即将开始和进行中的秒杀券
+        LocalDateTime now = LocalDateTime.now();
+        long lastId = 0L;
+        int total = 0;
+        while (true) {
+            List<SeckillVoucher> batch = seckillVoucherService.query()
+                    .le("begin_time", now.plusMinutes(aheadMinutes))
+                    .gt("end_time", now)
+                    .gt("voucher_id", lastId)
+                    .orderByAsc("voucher_id")
+                    .last("limit " + PRELOAD_BATCH_SIZE)
+                    .list();
+            if (batch.isEmpty()) {
+                break;
+            }
+            preloadBatch(batch);
+            total += batch.size();
+            if (batch.size() < PRELOAD_BATCH_SIZE) {
+                break;
+            }
+            lastId = batch.get(batch.size() - 1).getVoucherId();
+        }
+        return total;
+    }
+
+    private void preloadBatch(List<SeckillVoucher> batch) {
+        // 1.一次管道判断哪些秒杀券的库存不在redis中
+        List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (SeckillVoucher sv : batch) {
+                connection.exists(bytes(orderStreamPartitions.seckillKey(SECKILL_STOCK_KEY, sv.getVoucherId())));
+            }
+            return null;
+        });
+        List<SeckillVoucher> missing = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (!Boolean.TRUE.equals(exists.get(i))) {
+                missing.add(batch.get(i));
+            }
+        }
+        // 2.库存丢失的秒杀券，从数据库恢复已下单用户，数据库中的库存已经扣掉了这些订单
+        Map<Long, List<String>> orderedUsers = new HashMap<>();
+        if (!missing.isEmpty()) {
+            List<Long> ids = missing.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+            // 订单按用户分表，需要查询所有分片
+            for (int shard = 0; shard < voucherOrderShards.getShards(); shard++) {
+                List<VoucherOrder> orders = VoucherOrderShards.call(shard, () -> voucherOrderMapper.selectList(
+                        new QueryWrapper<VoucherOrder>()
+                                .select("voucher_id", "user_id")
+                                .in("voucher_id", ids)));
+                for (VoucherOrder order : orders) {
+                    orderedUsers.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>()).add(order.getUserId().toString());
+                }
+            }
+            log.warn("秒杀库存不在redis中，从数据库恢复，voucherIds：{}", ids);
+        }
+        // 3.一次管道写入时间窗口、库存和已下单用户
+        // 没有人下单的秒杀券不需要写已下单集合，lua中SISMEMBER对不存在的key返回0
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (SeckillVoucher sv : batch) {
+                writeSeckillWindow(connection, sv);
+            }
+            for (SeckillVoucher sv : missing) {
+                // SETNX，不覆盖同时写入的库存
+                connection.setNX(bytes(orderStreamPartitions.seckillKey(SECKILL_STOCK_KEY, sv.getVoucherId())), bytes(sv.getStock().toString()));
+                List<String> users = orderedUsers.get(sv.getVoucherId());
+                if (users != null) {
+                    connection.sAdd(bytes(orderStreamPartitions.seckillKey(SECKILL_ORDER_KEY, sv.getVoucherId())),
+                            users.stream().map(VoucherServiceImpl::bytes).toArray(byte[][]::new));
+                }
+            }
+            return null;
+        });
+        // 4.预热店铺和店铺优惠券列表的缓存
+        List<Long> voucherIds = batch.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+        Set<Long> shopIds = listByIds(voucherIds).stream()
+                .map(Voucher::getShopId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        for (Long shopId : shopIds) {
+            shopService.queryById(shopId);
+            queryVoucherOfShop(shopId);
+        }
+    }
+
+    private void saveSeckillWindow(SeckillVoucher seckillVoucher) {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            writeSeckillWindow(connection, seckillVoucher);
+            return null;
+        });
+    }
+
+    private void writeSeckillWindow(RedisConnection connection, SeckillVoucher sv) {
+        if (sv.getBeginTime() == null || sv.getEndTime() == null) {
+            return;
+        }
+        byte[] key = bytes(orderStreamPartitions.seckillKey(SECKILL_WINDOW_KEY, sv.getVoucherId()));
+        long end = toEpochMilli(sv.getEndTime());
+        Map<byte[], byte[]> window = new HashMap<>();
+        window.put(bytes("begin"), bytes(String.valueOf(toEpochMilli(sv.getBeginTime()))));
+        window.put(bytes("end"), bytes(String.valueOf(end)));
+        connection.hMSet(key, window);
+        // 秒杀结束一天后自动删除
+        connection.pExpireAt(key, end + TimeUnit.DAYS.toMillis(1));
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
     }
 }
@@ -10,7 +10,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
@@ -24,13 +28,94 @@ public class CacheClient {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private Metrics metrics;
+
+    @Autowired
+    private HotKeyDetector hotKeyDetector;
+
+    @Autowired
+    private RedisGetBatcher redisGetBatcher;
+
     // 线程池
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
+    // 按key前缀统计：命中本地热点缓存local、命中hit、命中空值null、未命中miss、逻辑过期expired
+    private Metrics.Family<Metrics.Counter> cacheRequests;
+    // 按key前缀统计缓存重建耗时，_count即重建次数
+    private Metrics.Family<Metrics.Histogram> cacheRebuildSeconds;
+    // 按key前缀统计合并到其它请求中、没有单独访问redis的查询次数
+    private Metrics.Family<Metrics.Counter> cacheCoalesced;
+
+    // 正在读取的key -> 读取结果，同一个key的并发查询只访问一次redis、只反序列化一次
+    private final Map<String, CompletableFuture<Fetched>> inflight = new ConcurrentHashMap<>();
+
+    private static class Fetched {
+        private final String json;
+        private final Object value;
+
+        private Fetched(String json, Object value) {
+            this.json = json;
+            this.value = value;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        cacheRequests = metrics.counter("hmdp_cache_requests_total", "缓存查询次数", "prefix", "result");
+        cacheRebuildSeconds = metrics.histogram("hmdp_cache_rebuild_seconds", "缓存重建（查询数据库并写回）耗时", "prefix");
+        cacheCoalesced = metrics.counter("hmdp_cache_coalesced_total", "合并到同key并发查询中的次数", "prefix");
+    }
+
     public void set(String key, Object value, Long time, TimeUnit unit){
         stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
     }
 
+    /**
+     * 删除缓存，同时删除所有节点中热点key的本地缓存
+     */
+    public void delete(String key){
+        stringRedisTemplate.delete(key);
+        hotKeyDetector.invalidate(key);
+    }
+
+    /**
+     * 热点key先读本地缓存，返回null时需要继续查询redis
+     */
+    private <R> R getLocal(String prefex, String key, Class<R> type) {
+        Object local = hotKeyDetector.getLocal(key);
+        if (local == null) {
+            return null;
+        }
+        cacheRequests.get(prefex, "local").increment();
+        return type.cast(local);
+    }
+
+    /**
+     * 读取redis并反序列化，同一个key同时只有一个线程读取，其余线程等待并共享结果
+     * 共享的是同一个对象，调用方不能修改
+     */
+    private Fetched fetch(String prefex, String key, Function<String, Object> decoder) {
+        CompletableFuture<Fetched> mine = new CompletableFuture<>();
+        CompletableFuture<Fetched> running = inflight.putIfAbsent(key, mine);
+        if (running != null) {
+            cacheCoalesced.get(prefex).increment();
+            return running.join();
+        }
+        try {
+            String json = redisGetBatcher.get(key);
+            Fetched fetched = new Fetched(json, StrUtil.isNotBlank(json) ? decoder.apply(json) : null);
+            mine.complete(fetched);
+            return fetched;
+        } catch (RuntimeException | Error e) {
+            // 等待的线程同样失败，不能让它们一直等下去
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, mine);
+        }
+    }
+
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
         // 设置逻辑过期时间
         RedisData redisData = new RedisData();
@@ -42,25 +127,41 @@ public class CacheClient {
     public <R,ID> R queryWithPassThrough(String prefex, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
         // 1.从redis查询商品缓存
         String key = prefex + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        R local = getLocal(prefex, key, type);
+        if (local != null) {
+            return local;
+        }
+        boolean hot = hotKeyDetector.record(key);
+        Fetched fetched = fetch(prefex, key, json -> JSONUtil.toBean(json, type));
+        String json = fetched.json;
         // 2.判断
         if(StrUtil.isNotBlank(json)){
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+            // 3.存在，直接返回，热点key同时放入本地缓存
+            cacheRequests.get(prefex, "hit").increment();
+            R r = type.cast(fetched.value);
+            if (hot) {
+                hotKeyDetector.putLocal(key, r);
+            }
+            return r;
         }
         if(json != null){
+            cacheRequests.get(prefex, "null").increment();
             return null;
         }
+        cacheRequests.get(prefex, "miss").increment();
 
         // 4.不存在。查询数据库
+        long start = System.nanoTime();
         R r = dbFallback.apply(id);
         // 5.不存在则写入空值
         if(r == null){
             stringRedisTemplate.opsForValue().set(key, "",RedisConstants.CACHE_NULL_TTL,TimeUnit.MINUTES);
+            cacheRebuildSeconds.get(prefex).recordSince(start);
             return null;
         }
         // 6.存在则更新缓存
         this.set(key, r, time, unit);
+        cacheRebuildSeconds.get(prefex).recordSince(start);
 
         return r;
     }
@@ -90,44 +191,60 @@ public class CacheClient {
     public <R,ID> R queryWithMutex(String prefex,String lockPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
         // 1.从redis查询商品缓存
         String key = prefex + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        R local = getLocal(prefex, key, type);
+        if (local != null) {
+            return local;
+        }
+        boolean hot = hotKeyDetector.record(key);
+        Fetched fetched = fetch(prefex, key, json -> JSONUtil.toBean(json, type));
+        String json = fetched.json;
         // 2.判断
         if(StrUtil.isNotBlank(json)){
-            // 3.存在，直接返回
-            R r = JSONUtil.toBean(json, type);
+            // 3.存在，直接返回，热点key同时放入本地缓存
+            cacheRequests.get(prefex, "hit").increment();
+            R r = type.cast(fetched.value);
+            if (hot) {
+                hotKeyDetector.putLocal(key, r);
+            }
             return r;
         }
         // 判断命中的是否是空值
         if(json != null){
+            cacheRequests.get(prefex, "null").increment();
             return null;
         }
+        cacheRequests.get(prefex, "miss").increment();
 
         // 实现缓存重建
         // 4.1 获取互斥锁
         String lockKey = lockPrefix + id;
-        R r = null;
-        try {
-            boolean isLock = tryLock(lockKey);
-            if(!isLock){
-                // 4.2失败，则休眠并重试
+        boolean isLock = tryLock(lockKey);
+        if(!isLock){
+            // 4.2失败，则休眠并重试，返回重试的结果，不再查询数据库，也不能释放别人的锁
+            try {
                 Thread.sleep(50);
-                queryWithMutex(prefex,lockPrefix,id,type,dbFallback,time,unit);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
             }
-
+            return queryWithMutex(prefex,lockPrefix,id,type,dbFallback,time,unit);
+        }
+        R r;
+        try {
             // 4.3成功,根据id查询数据库
+            long start = System.nanoTime();
             r = dbFallback.apply(id);
             // 5.不存在,返回错误
             if (r == null) {
                 // 将空值写入redis
                 stringRedisTemplate.opsForValue().set(key,"",time,unit);
+                cacheRebuildSeconds.get(prefex).recordSince(start);
                 return null;
             }
             // 6.存在，写入redis
             // 解决缓存雪崩问题：为ttl设置随机数，范围是-5~5
             long ttl = time + ThreadLocalRandom.current().nextInt(-5, 6);
             stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(r),ttl, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            cacheRebuildSeconds.get(prefex).recordSince(start);
         } finally {
             // 7.释放互斥锁
             unlock(lockKey);
@@ -142,20 +259,36 @@ public class CacheClient {
     public <R,ID> R queryWithLogicalExpire(String prefex,String lockPrefix,ID id,Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
         // 1.从redis查询商品缓存
         String key = prefex + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断
-        if(StrUtil.isNotBlank(json)){
+        R local = getLocal(prefex, key, type);
+        if (local != null) {
+            return local;
+        }
+        boolean hot = hotKeyDetector.record(key);
+        // 命中时需要先把json反序列化为对象，data替换为反序列化后的对象
+        Fetched fetched = fetch(prefex, key, json -> {
+            RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+            redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+            return redisData;
+        });
+        // 2.判断，未命中说明没有预热，直接返回空
+        if(fetched.value == null){
+            cacheRequests.get(prefex, "miss").increment();
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(),type);
+        // 4.命中
+        RedisData redisData = (RedisData) fetched.value;
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
         // 5.判断是否过期
         if(expireTime.isAfter(LocalDateTime.now())){
-            // 未过期直接返回
+            // 未过期直接返回，热点key同时放入本地缓存
+            cacheRequests.get(prefex, "hit").increment();
+            if (hot) {
+                hotKeyDetector.putLocal(key, r);
+            }
             return r;
         }
+        cacheRequests.get(prefex, "expired").increment();
         // 6.过期则缓存重建
         // 6.1获取互斥锁
         String lockKey = lockPrefix + id;
@@ -164,16 +297,19 @@ public class CacheClient {
             // 锁获取成功应再次检查redis缓存是否过期
 
             // 开启独立线程实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+            // 包装任务，重建线程中也能读到当前请求的上下文
+            CACHE_REBUILD_EXECUTOR.submit(RequestContext.wrap(() -> {
                 try {
+                    long start = System.nanoTime();
                     R apply = dbFallback.apply(id);
                     this.setWithLogicalExpire(key, apply, time, unit);
+                    cacheRebuildSeconds.get(prefex).recordSince(start);
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 } finally {// 释放锁
                     unlock(lockKey);
                 }
-            });
+            }));
         }
 
         return r;
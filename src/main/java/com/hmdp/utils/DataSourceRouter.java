@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+/**
+ * 当前线程的数据源路由状态
+ * 1.进入@ReadOnly方法时标记为只读，可以嵌套
+ * 2.执行过写语句后标记为已写，本次请求后续的查询都访问主库，读到自己刚写的数据
+ * 请求结束时由RequestContextCleanupFilter清理；订单消费、定时任务等线程不会清理，写过数据后始终访问主库
+ */
+public final class DataSourceRouter {
+
+    private static final ThreadLocal<int[]> READ_ONLY_DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+    private static final ThreadLocal<Boolean> WRITTEN = new ThreadLocal<>();
+
+    private DataSourceRouter() {
+    }
+
+    public static void enterReadOnly() {
+        READ_ONLY_DEPTH.get()[0]++;
+    }
+
+    public static void exitReadOnly() {
+        int[] depth = READ_ONLY_DEPTH.get();
+        if (--depth[0] <= 0) {
+            READ_ONLY_DEPTH.remove();
+        }
+    }
+
+    public static boolean isReadOnly() {
+        return READ_ONLY_DEPTH.get()[0] > 0;
+    }
+
+    public static void markWritten() {
+        WRITTEN.set(Boolean.TRUE);
+    }
+
+    public static boolean hasWritten() {
+        return WRITTEN.get() != null;
+    }
+
+    public static void clear() {
+        READ_ONLY_DEPTH.remove();
+        WRITTEN.remove();
+    }
+}
@@ -0,0 +1,210 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 热点key探测和本地缓存
+ * 1.CacheClient每次读缓存都记录一次，用count-min sketch统计每个key最近两个窗口内的访问次数，内存固定，不保存key
+ * 2.访问次数超过阈值的key标记为热点，并通过redis发布订阅通知其它节点
+ * 3.热点key的值在本地缓存很短的时间，期间的读请求不再访问redis；热点标记过期后不再访问的key自然淘汰
+ * 4.数据更新时调用invalidate，所有节点删除本地缓存
+ * 本地缓存返回的是同一个对象，调用方不能修改
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    // sketch的行数和每行的计数器个数
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 4096;
+    // 本地最多缓存的热点key数量
+    private static final int MAX_LOCAL_SIZE = 10_000;
+    // 统计窗口的长度
+    private static final long WINDOW_MILLIS = 1000L;
+
+    // 一个统计窗口内访问超过该次数的key是热点
+    @Value("${hmdp.hotkey.threshold:500}")
+    private long threshold;
+    // 热点key的值在本地缓存的时间
+    @Value("${hmdp.hotkey.local-ttl-millis:2000}")
+    private long localTtlMillis;
+    // 热点标记的有效期，期间仍然很热会续期
+    @Value("${hmdp.hotkey.hot-ttl-millis:10000}")
+    private long hotTtlMillis;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private Metrics metrics;
+
+    // 当前窗口和上一个窗口，统计时两者相加，每个窗口结束时清空较旧的一个
+    private volatile AtomicLongArray current = new AtomicLongArray(DEPTH * WIDTH);
+    private volatile AtomicLongArray previous = new AtomicLongArray(DEPTH * WIDTH);
+    // 当前窗口的开始时间
+    private volatile long windowStart = System.currentTimeMillis();
+
+    // 热点key -> 热点标记的过期时间
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+    // 热点key -> 本地缓存的值
+    private final Map<String, Local> locals = new ConcurrentHashMap<>();
+
+    private Metrics.Counter promotions;
+
+    private static class Local {
+        private final Object value;
+        private final long expireAt;
+
+        private Local(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        promotions = metrics.counter("hmdp_hotkey_promotions_total", "本节点探测到的热点key次数").get();
+        metrics.gauge("hmdp_hotkey_count", "当前的热点key数量").get().set(hotKeys::size);
+        // 其它节点发现的热点，直接标记
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String key = new String(message.getBody(), StandardCharsets.UTF_8);
+            hotKeys.put(key, System.currentTimeMillis() + hotTtlMillis);
+        }, new ChannelTopic(HOTKEY_CHANNEL));
+        // 数据更新，删除本地缓存
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            locals.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+        }, new ChannelTopic(HOTKEY_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 读取热点key在本地缓存的值，不是热点或已过期时返回null
+     */
+    public Object getLocal(String key) {
+        Local local = locals.get(key);
+        if (local == null) {
+            return null;
+        }
+        if (local.expireAt < System.currentTimeMillis()) {
+            locals.remove(key, local);
+            return null;
+        }
+        return local.value;
+    }
+
+    /**
+     * 热点key从redis加载后放入本地缓存
+     */
+    public void putLocal(String key, Object value) {
+        if (value == null || locals.size() >= MAX_LOCAL_SIZE) {
+            return;
+        }
+        locals.put(key, new Local(value, System.currentTimeMillis() + localTtlMillis));
+    }
+
+    /**
+     * 记录一次访问
+     * @return key是否为热点，是热点时调用方应当把读到的值放入本地缓存
+     */
+    public boolean record(String key) {
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= WINDOW_MILLIS) {
+            rotate(now);
+        }
+        int h1 = key.hashCode();
+        int h2 = spread(h1);
+        AtomicLongArray cur = current;
+        AtomicLongArray prev = previous;
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            // 双重哈希得到每一行的位置
+            int index = i * WIDTH + ((h1 + i * h2) & (WIDTH - 1));
+            long count = cur.incrementAndGet(index) + prev.get(index);
+            estimate = Math.min(estimate, count);
+        }
+        Long hotUntil = hotKeys.get(key);
+        if (estimate < threshold) {
+            return hotUntil != null && hotUntil > now;
+        }
+        // 超过阈值，标记或续期；新发现的热点通知其它节点
+        if (hotUntil == null || hotUntil - now < hotTtlMillis / 2) {
+            hotKeys.put(key, now + hotTtlMillis);
+            if (hotUntil == null) {
+                promotions.increment();
+                log.debug("发现热点key：{}", key);
+                stringRedisTemplate.convertAndSend(HOTKEY_CHANNEL, key);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 数据更新后删除所有节点的本地缓存
+     */
+    public void invalidate(String key) {
+        locals.remove(key);
+        stringRedisTemplate.convertAndSend(HOTKEY_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 按实际经过的时间切换统计窗口，在record中触发，不依赖定时任务准时执行
+     * 定时任务和其它任务共用调度线程，被拖慢时窗口会变长，普通key也会超过阈值
+     * 超过两个窗口没有访问时，两个窗口都已过期，全部清空
+     */
+    private synchronized void rotate(long now) {
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW_MILLIS) {
+            // 其它线程已经切换过
+            return;
+        }
+        AtomicLongArray stale = previous;
+        clear(stale);
+        if (elapsed >= 2 * WINDOW_MILLIS) {
+            clear(current);
+        }
+        previous = current;
+        current = stale;
+        windowStart = now - elapsed % WINDOW_MILLIS;
+    }
+
+    /**
+     * 清理过期的热点标记和本地缓存
+     */
+    @Scheduled(fixedRate = 1000L)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        hotKeys.entrySet().removeIf(e -> e.getValue() < now);
+        locals.entrySet().removeIf(e -> e.getValue().expireAt < now || !hotKeys.containsKey(e.getKey()));
+    }
+
+    private static void clear(AtomicLongArray counters) {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        // 第二个哈希必须是奇数，保证各行的位置不同
+        return h | 1;
+    }
+}
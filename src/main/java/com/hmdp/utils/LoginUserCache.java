@@ -0,0 +1,130 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 本地token -> 用户的会话缓存，命中时不访问redis
+ * 登出时通过redis发布订阅通知所有节点失效
+ */
+@Slf4j
+@Component
+public class LoginUserCache {
+
+    // 本地最多缓存的会话数
+    private static final int MAX_SIZE = 100_000;
+    // 本地缓存有效期，过期后重新从redis加载，保证其他节点的修改最终可见
+    private static final long LOCAL_TTL_MILLIS = 30_000L;
+    // 同一个token刷新redis有效期的最小间隔
+    private static final long REFRESH_INTERVAL_MILLIS = 5 * 60_000L;
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private static class Entry {
+        private final UserDTO user;
+        private final long expireAt;
+        private final AtomicLong lastRefresh;
+
+        private Entry(UserDTO user, long now, long lastRefresh) {
+            this.user = user;
+            this.expireAt = now + LOCAL_TTL_MILLIS;
+            this.lastRefresh = new AtomicLong(lastRefresh);
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        // 订阅其他节点发出的失效消息，消息体为逗号分隔的token
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            for (String token : body.split(",")) {
+                cache.remove(token);
+            }
+        }, new ChannelTopic(LOGIN_INVALIDATE_CHANNEL));
+    }
+
+    public UserDTO get(String token) {
+        Entry entry = cache.get(token);
+        if (entry == null) {
+            return null;
+        }
+        // 过期的条目留给put覆盖，以便保留上一次刷新有效期的时间
+        return entry.expireAt < System.currentTimeMillis() ? null : entry.user;
+    }
+
+    /**
+     * 放入本地缓存，调用方刚刚从redis加载了用户信息
+     */
+    public void put(String token, UserDTO user) {
+        long now = System.currentTimeMillis();
+        if (cache.size() >= MAX_SIZE) {
+            evict(now);
+        }
+        Entry old = cache.get(token);
+        // 新token的刷新时间为0，保证第一次加载时会刷新一次有效期
+        long lastRefresh = old == null ? 0L : old.lastRefresh.get();
+        cache.put(token, new Entry(user, now, lastRefresh));
+    }
+
+    /**
+     * 判断本次请求是否需要刷新redis中token的有效期，每个间隔内只有一个请求会返回true
+     */
+    public boolean tryAcquireRefresh(String token) {
+        Entry entry = cache.get(token);
+        if (entry == null) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        long last = entry.lastRefresh.get();
+        return now - last >= REFRESH_INTERVAL_MILLIS && entry.lastRefresh.compareAndSet(last, now);
+    }
+
+    /**
+     * 失效本节点以及所有其他节点中的会话
+     */
+    public void invalidate(String... tokens) {
+        if (tokens.length == 0) {
+            return;
+        }
+        for (String token : tokens) {
+            cache.remove(token);
+        }
+        stringRedisTemplate.convertAndSend(LOGIN_INVALIDATE_CHANNEL, String.join(",", tokens));
+    }
+
+    private void evict(long now) {
+        // 1.先清理本地已过期的
+        cache.values().removeIf(e -> e.expireAt < now);
+        if (cache.size() < MAX_SIZE) {
+            return;
+        }
+        // 2.仍然满了就随机淘汰十分之一
+        int toRemove = MAX_SIZE / 10;
+        Iterator<String> it = cache.keySet().iterator();
+        while (toRemove-- > 0 && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        log.debug("本地会话缓存已满，淘汰部分会话");
+    }
+}
@@ -0,0 +1,272 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * 指标注册表，按prometheus文本格式导出
+ * 1.计数器和直方图都基于LongAdder，记录时不加锁、不分配对象，可以放在热点路径上
+ * 2.指标按名称分组，每组最多两个标签，调用方在初始化时取出Family，记录时用标签值查找，命中时没有对象分配
+ * 3.直方图使用固定的延迟桶，单位纳秒，导出时换算成秒
+ */
+@Component
+public class Metrics {
+
+    private final Map<String, Family<?>> families = new ConcurrentSkipListMap<>();
+
+    public Family<Counter> counter(String name, String help, String... labelNames) {
+        return register(name, help, "counter", labelNames, labels -> new Counter(labels));
+    }
+
+    public Family<Histogram> histogram(String name, String help, String... labelNames) {
+        return register(name, help, "histogram", labelNames, labels -> new Histogram(labels));
+    }
+
+    public Family<Gauge> gauge(String name, String help, String... labelNames) {
+        return register(name, help, "gauge", labelNames, labels -> new Gauge(labels));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <M extends Metric> Family<M> register(String name, String help, String type, String[] labelNames,
+                                                  Function<String[], M> factory) {
+        return (Family<M>) families.computeIfAbsent(name, k -> new Family<>(name, help, type, labelNames, factory));
+    }
+
+    /**
+     * 导出全部指标，prometheus text format 0.0.4
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family<?> family : families.values()) {
+            family.write(out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * 同名同标签的一组指标
+     */
+    public static class Family<M extends Metric> {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final String[] labelNames;
+        private final Function<String[], M> factory;
+        // 第一个标签值 -> 第二个标签值 -> 指标，没有标签时两级都是空字符串
+        private final Map<String, Map<String, M>> children = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type, String[] labelNames, Function<String[], M> factory) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames;
+            this.factory = factory;
+        }
+
+        public M get() {
+            return get("", "");
+        }
+
+        public M get(String label) {
+            return get(label, "");
+        }
+
+        public M get(String label1, String label2) {
+            Map<String, M> level = children.get(label1);
+            if (level == null) {
+                level = children.computeIfAbsent(label1, k -> new ConcurrentHashMap<>());
+            }
+            M metric = level.get(label2);
+            if (metric == null) {
+                metric = level.computeIfAbsent(label2, k -> factory.apply(labelValues(label1, label2)));
+            }
+            return metric;
+        }
+
+        private String[] labelValues(String label1, String label2) {
+            switch (labelNames.length) {
+                case 0:
+                    return new String[0];
+                case 1:
+                    return new String[]{label1};
+                default:
+                    return new String[]{label1, label2};
+            }
+        }
+
+        void write(StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            for (Map<String, M> level : children.values()) {
+                for (M metric : level.values()) {
+                    metric.write(name, labelNames, out);
+                }
+            }
+        }
+    }
+
+    public abstract static class Metric {
+        private final String[] labelValues;
+
+        Metric(String[] labelValues) {
+            this.labelValues = labelValues;
+        }
+
+        abstract void write(String name, String[] labelNames, StringBuilder out);
+
+        void writeLabels(String[] labelNames, String extraName, String extraValue, StringBuilder out) {
+            if (labelValues.length == 0 && extraName == null) {
+                return;
+            }
+            out.append('{');
+            for (int i = 0; i < labelValues.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(labelNames[i]).append("=\"");
+                escape(labelValues[i], out);
+                out.append('"');
+            }
+            if (extraName != null) {
+                if (labelValues.length > 0) {
+                    out.append(',');
+                }
+                out.append(extraName).append("=\"").append(extraValue).append('"');
+            }
+            out.append('}');
+        }
+
+        private static void escape(String value, StringBuilder out) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    out.append('\\').append(c);
+                } else if (c == '\n') {
+                    out.append("\\n");
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+    }
+
+    public static class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+
+        Counter(String[] labelValues) {
+            super(labelValues);
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long sum() {
+            return value.sum();
+        }
+
+        @Override
+        void write(String name, String[] labelNames, StringBuilder out) {
+            out.append(name);
+            writeLabels(labelNames, null, null, out);
+            out.append(' ').append(value.sum()).append('\n');
+        }
+    }
+
+    public static class Gauge extends Metric {
+        private volatile DoubleSupplier supplier = () -> 0;
+
+        Gauge(String[] labelValues) {
+            super(labelValues);
+        }
+
+        /**
+         * 导出时才读取的值
+         */
+        public void set(DoubleSupplier supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        void write(String name, String[] labelNames, StringBuilder out) {
+            out.append(name);
+            writeLabels(labelNames, null, null, out);
+            out.append(' ').append(supplier.getAsDouble()).append('\n');
+        }
+    }
+
+    public static class Histogram extends Metric {
+        // 桶的上限，纳秒：100us ~ 10s
+        private static final long[] BOUNDS = {
+                100_000L, 250_000L, 500_000L,
+                1_000_000L, 2_500_000L, 5_000_000L,
+                10_000_000L, 25_000_000L, 50_000_000L,
+                100_000_000L, 250_000_000L, 500_000_000L,
+                1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L
+        };
+        private static final String[] LE;
+        static {
+            LE = new String[BOUNDS.length];
+            for (int i = 0; i < BOUNDS.length; i++) {
+                LE[i] = BigDecimal.valueOf(BOUNDS[i]).movePointLeft(9).stripTrailingZeros().toPlainString();
+            }
+        }
+
+        // 最后一个桶是+Inf
+        private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram(String[] labelValues) {
+            super(labelValues);
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long nanos) {
+            int i = 0;
+            while (i < BOUNDS.length && nanos > BOUNDS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public void record(long duration, TimeUnit unit) {
+            record(unit.toNanos(duration));
+        }
+
+        @Override
+        void write(String name, String[] labelNames, StringBuilder out) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                out.append(name).append("_bucket");
+                writeLabels(labelNames, "le", i < BOUNDS.length ? LE[i] : "+Inf", out);
+                out.append(' ').append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum");
+            writeLabels(labelNames, null, null, out);
+            out.append(' ').append(sumNanos.sum() / 1e9).append('\n');
+            out.append(name).append("_count");
+            writeLabels(labelNames, null, null, out);
+            out.append(' ').append(cumulative).append('\n');
+        }
+    }
+}
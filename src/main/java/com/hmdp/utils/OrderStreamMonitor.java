@@ -0,0 +1,182 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 订单消息队列的监控、裁剪和背压，按分区统计
+ * 1.定时读取每个分区消费组的投递进度、pending数量和队列长度，计算积压
+ * 2.按消费组已确认的位置用 XTRIM MINID 裁剪，不会删除未投递或未确认的消息
+ * 3.某个分区积压超过阈值时，只拒绝落在这个分区的秒杀，判断只读本地变量
+ */
+@Slf4j
+@Component
+public class OrderStreamMonitor {
+
+    @Value("${hmdp.seckill.max-backlog:100000}")
+    private long maxBacklog;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private OrderStreamPartitions orderStreamPartitions;
+
+    @Resource
+    private Metrics metrics;
+
+    private static final Stats EMPTY = new Stats();
+
+    // 分区 -> 队列状态
+    private volatile Map<Integer, Stats> stats = Collections.emptyMap();
+
+    @Data
+    public static class Stats {
+        private String key;
+        // 队列长度
+        private long length;
+        // 已投递未确认的消息数
+        private long pending;
+        // 未投递的消息数，redis7以下无法直接获取时为-1
+        private long lag = -1;
+        // 积压：未投递 + 未确认，无法获取lag时用队列长度近似（偏大）
+        private long backlog;
+        private String lastDeliveredId;
+        private String minPendingId;
+        private long updateTime;
+    }
+
+    public Map<Integer, Stats> getStats() {
+        return stats;
+    }
+
+    /**
+     * 优惠券所在分区积压超过阈值时返回true，秒杀接口应当直接拒绝
+     */
+    public boolean isOverloaded(Long voucherId) {
+        Stats s = stats.get(orderStreamPartitions.partitionOf(voucherId));
+        return s != null && s.getBacklog() > maxBacklog;
+    }
+
+    /**
+     * 注册每个分区的队列长度、未确认数、未投递数和积压的指标，抓取时读取最近一次的统计
+     */
+    @PostConstruct
+    private void init() {
+        Metrics.Family<Metrics.Gauge> length = metrics.gauge("hmdp_order_stream_length", "订单队列长度", "partition");
+        Metrics.Family<Metrics.Gauge> pending = metrics.gauge("hmdp_order_stream_pending", "订单队列已投递未确认的消息数", "partition");
+        Metrics.Family<Metrics.Gauge> lag = metrics.gauge("hmdp_order_stream_lag", "订单队列未投递的消息数，-1表示redis不支持", "partition");
+        Metrics.Family<Metrics.Gauge> backlog = metrics.gauge("hmdp_order_stream_backlog", "订单队列积压", "partition");
+        for (int p = 0; p < orderStreamPartitions.getPartitions(); p++) {
+            int partition = p;
+            String label = String.valueOf(p);
+            length.get(label).set(() -> stat(partition).getLength());
+            pending.get(label).set(() -> stat(partition).getPending());
+            lag.get(label).set(() -> stat(partition).getLag());
+            backlog.get(label).set(() -> stat(partition).getBacklog());
+        }
+    }
+
+    private Stats stat(int partition) {
+        Stats s = stats.get(partition);
+        return s == null ? EMPTY : s;
+    }
+
+    @Scheduled(fixedDelay = 1000L)
+    public void refresh() {
+        Map<Integer, Stats> current = new TreeMap<>();
+        for (int p = 0; p < orderStreamPartitions.getPartitions(); p++) {
+            try {
+                current.put(p, collect(OrderStreamPartitions.streamKey(p)));
+            } catch (Exception e) {
+                // 队列或消费组还不存在
+                log.debug("读取订单队列状态失败：{}", e.getMessage());
+            }
+        }
+        stats = current;
+    }
+
+    /**
+     * 裁剪已经被消费组确认的消息，只裁剪当前实例负责的分区
+     */
+    @Scheduled(fixedDelay = 10_000L)
+    public void trim() {
+        stats.forEach((partition, current) -> {
+            if (!orderStreamPartitions.isOwner(partition)) {
+                return;
+            }
+            // 1.有未确认的消息时保留最早的未确认消息，否则保留最后投递位置之后的消息
+            String minId = current.getMinPendingId() != null
+                    ? current.getMinPendingId() : nextId(current.getLastDeliveredId());
+            if (minId == null) {
+                return;
+            }
+            // 2.XTRIM key MINID ~ minId，删除id小于minId的消息，~允许redis按宏节点近似裁剪，开销更小
+            try {
+                stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XTRIM",
+                        bytes(current.getKey()), bytes("MINID"), bytes("~"), bytes(minId)));
+            } catch (Exception e) {
+                log.error("裁剪订单队列失败，key：" + current.getKey(), e);
+            }
+        });
+    }
+
+    private Stats collect(String key) {
+        Stats s = new Stats();
+        s.setKey(key);
+        s.setUpdateTime(System.currentTimeMillis());
+        Long length = stringRedisTemplate.opsForStream().size(key);
+        s.setLength(length == null ? 0 : length);
+        for (StreamInfo.XInfoGroup group : stringRedisTemplate.opsForStream().groups(key).stream().collect(Collectors.toList())) {
+            if (!ORDER_GROUP.equals(group.groupName())) {
+                continue;
+            }
+            s.setLastDeliveredId(group.lastDeliveredId());
+            s.setPending(group.pendingCount() == null ? 0 : group.pendingCount());
+            // redis7的XINFO GROUPS直接返回lag
+            Object lag = group.getRaw().get("lag");
+            if (lag instanceof Number) {
+                s.setLag(((Number) lag).longValue());
+            }
+        }
+        if (s.getPending() > 0) {
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(key, ORDER_GROUP);
+            s.setMinPendingId(summary.minMessageId());
+        }
+        s.setBacklog(s.getLag() >= 0 ? s.getLag() + s.getPending() : s.getLength());
+        return s;
+    }
+
+    /**
+     * 消息id的下一个id，ms-seq -> ms-(seq+1)
+     */
+    private static String nextId(String id) {
+        if (StrUtil.isBlank(id) || "0-0".equals(id)) {
+            return null;
+        }
+        int idx = id.indexOf('-');
+        return id.substring(0, idx + 1) + (Long.parseLong(id.substring(idx + 1)) + 1);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
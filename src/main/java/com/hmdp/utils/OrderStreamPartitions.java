@@ -0,0 +1,142 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.IdUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 订单消息队列分区
+ * 1.订单按 voucherId % 分区数 写入 stream.orders:{分区}，大促不会拖慢其它秒杀的落库
+ *   同一张券的秒杀key都带有所在分区的hash tag {分区}，如 seckill:stock:{3}:1001，和分区队列在redis集群的同一个slot，
+ *   秒杀脚本才能同时访问它们；修改分区数会改变这些key的名称，只能在没有进行中的秒杀时修改
+ * 2.每个实例定时在 order:consumers 中上报心跳，存活实例按id排序后轮流认领分区，实例增减时自动重新分配
+ * 3.每个分区固定使用消费者 c{分区}，分区换了实例后，pending-list也跟着被新的实例接管
+ */
+@Slf4j
+@Component
+public class OrderStreamPartitions {
+
+    @Value("${hmdp.seckill.order-partitions:8}")
+    private int partitions;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 当前实例的id
+    private final String instanceId = IdUtil.simpleUUID();
+
+    // 当前实例负责的分区
+    private volatile Set<Integer> owned = Collections.emptySet();
+
+    @PostConstruct
+    private void init() {
+        // 创建每个分区的消费组，队列不存在时一起创建
+        for (int p = 0; p < partitions; p++) {
+            String key = streamKey(p);
+            try {
+                stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                        .xGroupCreate(bytes(key), ORDER_GROUP, ReadOffset.from("0"), true));
+            } catch (Exception e) {
+                // BUSYGROUP，消费组已经存在
+                log.debug("消费组已存在，key：{}", key);
+            }
+        }
+        heartbeat();
+    }
+
+    @PreDestroy
+    private void destroy() {
+        // 主动退出，其它实例下一次心跳就能接管分区
+        stringRedisTemplate.opsForZSet().remove(ORDER_CONSUMER_KEY, instanceId);
+    }
+
+    /**
+     * 上报心跳并重新计算当前实例负责的分区
+     */
+    @Scheduled(fixedDelay = 3000L)
+    public void heartbeat() {
+        long now = System.currentTimeMillis();
+        try {
+            stringRedisTemplate.opsForZSet().add(ORDER_CONSUMER_KEY, instanceId, now);
+            // 清理超时未上报心跳的实例
+            stringRedisTemplate.opsForZSet().removeRangeByScore(ORDER_CONSUMER_KEY, 0, now - ORDER_CONSUMER_TTL);
+            Set<String> members = stringRedisTemplate.opsForZSet().range(ORDER_CONSUMER_KEY, 0, -1);
+            List<String> instances = members == null ? new ArrayList<>() : new ArrayList<>(members);
+            // 按id排序，所有实例看到同样的成员时算出同样的分配结果
+            Collections.sort(instances);
+            int index = instances.indexOf(instanceId);
+            if (index < 0) {
+                return;
+            }
+            Set<Integer> assigned = new HashSet<>();
+            for (int p = index; p < partitions; p += instances.size()) {
+                assigned.add(p);
+            }
+            if (!assigned.equals(owned)) {
+                log.info("订单队列分区重新分配，实例：{}，分区：{}", instanceId, assigned);
+            }
+            owned = assigned;
+        } catch (Exception e) {
+            log.error("订单队列分区心跳异常", e);
+        }
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public boolean isOwner(int partition) {
+        return owned.contains(partition);
+    }
+
+    public int partitionOf(Long voucherId) {
+        return (int) Math.floorMod(voucherId, (long) partitions);
+    }
+
+    /**
+     * 分区的hash tag，redis集群只按{}中的内容计算slot
+     */
+    public static String hashTag(int partition) {
+        return "{" + partition + "}";
+    }
+
+    public static String streamKey(int partition) {
+        return ORDER_STREAM_KEY + ":" + hashTag(partition);
+    }
+
+    /**
+     * 秒杀券的key，带有所在分区的hash tag，如 seckill:stock:{3}:1001
+     */
+    public String seckillKey(String prefix, Long voucherId) {
+        return seckillKey(prefix, voucherId, partitionOf(voucherId));
+    }
+
+    public static String seckillKey(String prefix, Long voucherId, int partition) {
+        return prefix + hashTag(partition) + ":" + voucherId;
+    }
+
+    public String streamKeyOf(Long voucherId) {
+        return streamKey(partitionOf(voucherId));
+    }
+
+    public String consumerName(int partition) {
+        return "c" + partition;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,115 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 两级限流：
+ * 1.本地滑动窗口预检，本节点收到的请求数已经超过限制时直接拒绝，不访问redis
+ * 2.redis中用lua实现的滑动窗口做全局计数，保证多节点下的限制准确
+ */
+@Component
+public class RateLimiter {
+
+    private static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("lua/rate_limit.lua"));
+    }
+
+    // 本地计数器的数量上限，超过后清理过期的
+    private static final int MAX_LOCAL_WINDOWS = 100_000;
+
+    private static final String INSTANCE_ID = UUID.randomUUID().toString(true);
+
+    private final Map<String, LocalWindow> localWindows = new ConcurrentHashMap<>();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 本地的滑动窗口计数，用上一个窗口和当前窗口的计数按时间加权估算
+     */
+    private static class LocalWindow {
+        private final long windowMillis;
+        private long windowStart;
+        private int previous;
+        private int current;
+
+        private LocalWindow(long windowMillis, long now) {
+            this.windowMillis = windowMillis;
+            this.windowStart = now;
+        }
+
+        private synchronized boolean incrementAndCheck(long now, int limit) {
+            long elapsed = now - windowStart;
+            if (elapsed >= windowMillis) {
+                // 跨过一个窗口则当前计数变为上一窗口计数，跨过两个及以上则全部清零
+                previous = elapsed >= 2 * windowMillis ? 0 : current;
+                current = 0;
+                windowStart = now - elapsed % windowMillis;
+                elapsed = now - windowStart;
+            }
+            current++;
+            double estimate = previous * (1 - (double) elapsed / windowMillis) + current;
+            return estimate <= limit;
+        }
+
+        private synchronized boolean isExpired(long now) {
+            return now - windowStart >= 2 * windowMillis;
+        }
+    }
+
+    /**
+     * 尝试获取一次许可
+     * @param key           限流key
+     * @param limit         窗口内允许的次数
+     * @param windowMillis  窗口大小
+     * @return true表示放行
+     */
+    public boolean tryAcquire(String key, int limit, long windowMillis) {
+        long now = System.currentTimeMillis();
+        // 1.本地预检，本节点的请求数不可能超过全局请求数
+        LocalWindow window = localWindows.get(key);
+        if (window == null) {
+            if (localWindows.size() >= MAX_LOCAL_WINDOWS) {
+                cleanUp();
+            }
+            window = localWindows.computeIfAbsent(key, k -> new LocalWindow(windowMillis, now));
+        }
+        if (!window.incrementAndCheck(now, limit)) {
+            return false;
+        }
+        // 2.redis全局计数
+        Long result = stringRedisTemplate.execute(
+                RATE_LIMIT_SCRIPT,
+                Collections.singletonList(RATE_LIMIT_KEY + key),
+                String.valueOf(now),
+                String.valueOf(windowMillis),
+                String.valueOf(limit),
+                INSTANCE_ID + ":" + Thread.currentThread().getId() + ":" + System.nanoTime()
+        );
+        return result != null && result == 1L;
+    }
+
+    /**
+     * 定时清理长时间没有请求的本地计数器
+     */
+    @Scheduled(fixedDelay = 60_000L)
+    public void cleanUp() {
+        long now = System.currentTimeMillis();
+        localWindows.values().removeIf(w -> w.isExpired(now));
+    }
+}
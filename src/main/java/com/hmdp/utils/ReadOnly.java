@@ -0,0 +1,14 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.*;
+
+/**
+ * 只读方法，其中的查询路由到只读副本
+ * 方法中不能有写操作；本次请求已经写过数据、副本延迟过高或没有可用副本时仍然访问主库
+ * 也可以用@Transactional(readOnly = true)达到同样的效果
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ReadOnly {
+}
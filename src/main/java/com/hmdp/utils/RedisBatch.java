@@ -0,0 +1,46 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 多条相关的redis命令一次发送
+ * 1.pipeline：命令一次写出，只等待一次网络往返，命令之间不保证原子性，返回每条命令的结果
+ * 2.transaction：在管道中用MULTI/EXEC包裹，命令原子执行，同样只有一次网络往返
+ * 回调中的连接是字符串连接，直接使用String参数，不需要手动转换byte[]；回调中不能读取命令的返回值
+ */
+@Component
+public class RedisBatch {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 管道执行
+     * @return 每条命令的结果，按发送顺序
+     */
+    public List<Object> pipeline(Consumer<StringRedisConnection> commands) {
+        return stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            commands.accept((StringRedisConnection) connection);
+            return null;
+        });
+    }
+
+    /**
+     * 管道中以事务执行，命令全部执行或全部不执行
+     */
+    public void transaction(Consumer<StringRedisConnection> commands) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.multi();
+            commands.accept((StringRedisConnection) connection);
+            connection.exec();
+            return null;
+        });
+    }
+}
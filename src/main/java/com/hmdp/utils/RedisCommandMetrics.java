@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.metrics.CommandLatencyCollector;
+import io.lettuce.core.metrics.CommandLatencyId;
+import io.lettuce.core.metrics.CommandMetrics;
+import io.lettuce.core.protocol.ProtocolKeyword;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 记录lettuce每条命令的延迟到指标注册表
+ * lettuce自带的收集器依赖HdrHistogram，这里直接写入按命令分组的直方图
+ */
+public class RedisCommandMetrics implements CommandLatencyCollector {
+
+    private final Metrics.Family<Metrics.Histogram> commandSeconds;
+    private final Metrics.Family<Metrics.Histogram> firstResponseSeconds;
+
+    public RedisCommandMetrics(Metrics metrics) {
+        this.commandSeconds = metrics.histogram("hmdp_redis_command_seconds",
+                "redis命令从发出到完成的延迟", "command");
+        this.firstResponseSeconds = metrics.histogram("hmdp_redis_first_response_seconds",
+                "redis命令从发出到收到第一个响应的延迟", "command");
+    }
+
+    @Override
+    public void recordCommandLatency(SocketAddress local, SocketAddress remote, ProtocolKeyword commandType,
+                                     long firstResponseLatency, long completionLatency) {
+        // 延迟单位是纳秒，CommandType是枚举，name()不会分配对象
+        String command = commandType.name();
+        firstResponseSeconds.get(command).record(firstResponseLatency);
+        commandSeconds.get(command).record(completionLatency);
+    }
+
+    @Override
+    public Map<CommandLatencyId, CommandMetrics> retrieveMetrics() {
+        // 指标由注册表导出，不通过lettuce的事件总线发布
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
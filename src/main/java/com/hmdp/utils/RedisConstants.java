@@ -5,18 +5,67 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    // 用户的会话索引，set中保存该用户所有未过期的token
+    public static final String LOGIN_USER_TOKENS_KEY = "login:user:";
+    public static final Long LOGIN_USER_TOKENS_MAX = 20L;
+    public static final String LOGIN_INVALIDATE_CHANNEL = "login:invalidate";
+    public static final String LOGIN_DENYLIST_KEY = "login:denylist";
+    public static final String LOGIN_DENY_CHANNEL = "login:deny";
+
+    public static final String RATE_LIMIT_KEY = "limit:";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final Long CACHE_VOUCHER_TTL = 30L;
+    public static final String CACHE_VOUCHER_KEY = "cache:voucher:";
+
+    // 只读GET接口序列化好的响应，key后面是请求路径
+    public static final String CACHE_RESPONSE_KEY = "cache:resp:";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    // 已下单用户的订单id，field为userId，seckill.lua中写入，落库后对账时删除
+    public static final String SECKILL_ORDER_ID_KEY = "seckill:order-id:";
+    // 秒杀时间窗口，hash中begin、end为毫秒时间戳
+    public static final String SECKILL_WINDOW_KEY = "seckill:window:";
+    public static final Long SECKILL_PRELOAD_AHEAD = 10L;
+    // 手动预热最多提前的分钟数，避免一次扫描和加载过多秒杀券
+    public static final Long SECKILL_PRELOAD_MAX_AHEAD = 24 * 60L;
+    public static final String ORDER_STREAM_KEY = "stream.orders";
+    public static final String ORDER_GROUP = "g1";
+    // 订单队列消费实例的心跳，超过该时间未上报的实例不再分配分区，毫秒
+    public static final String ORDER_CONSUMER_KEY = "order:consumers";
+    public static final Long ORDER_CONSUMER_TTL = 10_000L;
+    // 秒杀订单的异步落库结果，key为 seckill:result:用户id:订单id，只有下单的用户能查到，秒杀成功后写入PENDING
+    public static final String SECKILL_RESULT_KEY = "seckill:result:";
+    public static final Long SECKILL_RESULT_TTL = 600L;
+    public static final String SECKILL_RESULT_CHANNEL = "seckill:result";
+    // 热点key的发现和本地缓存失效通知
+    public static final String HOTKEY_CHANNEL = "hotkey:promote";
+    public static final String HOTKEY_INVALIDATE_CHANNEL = "hotkey:invalidate";
+    // 未支付订单的超时队列，member为订单id，score为支付截止时间
+    public static final String ORDER_TIMEOUT_KEY = "order:timeout";
+    // 超时取消任务的锁名，SimpleRedisLock加上lock:前缀
+    public static final String LOCK_ORDER_TIMEOUT_NAME = "order:timeout";
+    // 正在超时取消的订单，key后面是voucherId，member为订单id
+    // 数据库取消之前写入，归还redis库存时删除，对账时跳过有取消在途的秒杀券
+    public static final String ORDER_CANCELLING_KEY = "order:cancelling:";
+    public static final Long ORDER_CANCELLING_TTL = 1L;
+    // 对账时在redis中已下单、数据库中还没有订单的用户，field为userId，value为第一次发现的时间
+    public static final String SECKILL_RECONCILE_KEY = "seckill:reconcile:";
+    // 对账任务的锁名，SimpleRedisLock加上lock:前缀
+    public static final String LOCK_RECONCILE_NAME = "reconcile";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+    // 已归档月份的标记，不能以sign:开头，否则会被归档时的SCAN匹配到
+    public static final String SIGN_ARCHIVED_KEY = "archive:sign:";
+    public static final Long SIGN_ARCHIVED_TTL = 40L;
 }
@@ -0,0 +1,156 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.api.StatefulRedisConnection;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 缓存读取的微批合并
+ * 开启后，一个时间窗口内不同key的GET合并为一次MGET，通过非阻塞连接发出，分发线程不等待结果
+ * 默认关闭（窗口为0），直接GET；开启会给每次读取增加最多一个窗口的延迟，用redis请求数换延迟
+ */
+@Slf4j
+@Component
+public class RedisGetBatcher {
+
+    // 合并窗口，微秒，0表示不合并
+    @Value("${hmdp.cache.batch-window-micros:0}")
+    private long windowMicros;
+    // 一次MGET最多的key数
+    @Value("${hmdp.cache.batch-max-keys:64}")
+    private int maxKeys;
+    // 调用方最多等待的时间，分发线程异常退出或停止后入队的请求不会一直阻塞
+    @Value("${hmdp.cache.batch-timeout-millis:1000}")
+    private long timeoutMillis;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private StatefulRedisConnection<String, String> asyncRedisConnection;
+
+    @Resource
+    private Metrics metrics;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private Thread dispatcher;
+    private Metrics.Counter batches;
+    private Metrics.Counter batchedKeys;
+
+    private static class Request {
+        private final String key;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private Request(String key) {
+            this.key = key;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        if (windowMicros <= 0) {
+            return;
+        }
+        batches = metrics.counter("hmdp_cache_mget_batches_total", "合并后的MGET次数").get();
+        batchedKeys = metrics.counter("hmdp_cache_mget_keys_total", "合并到MGET中的key数").get();
+        dispatcher = new Thread(this::dispatch, "redis-get-batcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+        }
+    }
+
+    public String get(String key) {
+        if (dispatcher == null || !dispatcher.isAlive()) {
+            return stringRedisTemplate.opsForValue().get(key);
+        }
+        Request request = new Request(key);
+        queue.add(request);
+        try {
+            return request.future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("读取缓存被中断，key：" + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        } catch (TimeoutException e) {
+            throw new QueryTimeoutException("合并读取缓存超时，key：" + key, e);
+        }
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>(maxKeys);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // 1.等到第一个请求，再在窗口内收集后续的请求
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(windowMicros);
+                while (batch.size() < maxKeys) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                // 2.合并为一次MGET，结果在lettuce的io线程中分发
+                send(new ArrayList<>(batch));
+            } catch (InterruptedException e) {
+                // 停止时已经取出、还没有发送的请求直接失败
+                failAll(batch);
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("合并读取缓存异常", e);
+                batch.forEach(r -> r.future.completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+        // 队列中剩下的请求也直接失败，不让调用方等到超时
+        queue.drainTo(batch);
+        failAll(batch);
+    }
+
+    private static void failAll(List<Request> requests) {
+        IllegalStateException stopped = new IllegalStateException("缓存合并读取已停止");
+        requests.forEach(r -> r.future.completeExceptionally(stopped));
+    }
+
+    private void send(List<Request> batch) {
+        Set<String> keys = new LinkedHashSet<>();
+        batch.forEach(r -> keys.add(r.key));
+        batches.increment();
+        batchedKeys.add(keys.size());
+        asyncRedisConnection.async().mget(keys.toArray(new String[0])).whenComplete((values, e) -> {
+            if (e != null) {
+                batch.forEach(r -> r.future.completeExceptionally(e));
+                return;
+            }
+            Map<String, String> result = new HashMap<>(values.size() * 2);
+            for (KeyValue<String, String> kv : values) {
+                result.put(kv.getKey(), kv.getValueOrElse(null));
+            }
+            batch.forEach(r -> r.future.complete(result.get(r.key)));
+        });
+    }
+}
@@ -1,12 +1,15 @@
 package com.hmdp.utils;
 
+import io.lettuce.core.api.StatefulRedisConnection;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
 
 @Component
 public class RedisIdWorker {
@@ -14,10 +17,29 @@ public class RedisIdWorker {
     private static final long BEGIN_TIMESTAMP = 1735689600L;
     // 序列号位数
     private static final int  COUNT_BITS= 32;
+    // 序列号的低位保存分片号，剩余的位保存当天的自增值，同一秒内不会超过2^24个id
+    private static final int SHARD_BITS = 8;
+    private static final long SHARD_MASK = (1L << SHARD_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << (COUNT_BITS - SHARD_BITS)) - 1;
+    public static final int MAX_SHARDS = 1 << SHARD_BITS;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private StatefulRedisConnection<String, String> asyncRedisConnection;
+
+    @Resource
+    private Metrics metrics;
+
+    // 按业务前缀统计生成序列号的INCR延迟
+    private Metrics.Family<Metrics.Histogram> incrSeconds;
+
+    @PostConstruct
+    private void init() {
+        incrSeconds = metrics.histogram("hmdp_id_incr_seconds", "生成id时INCR序列号的延迟", "prefix");
+    }
+
     public long nextId(String keyPrefix) {
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
@@ -25,12 +47,58 @@ public class RedisIdWorker {
         long timestamp = nowSecond - BEGIN_TIMESTAMP;
         // 2.生成序列号
         String date = now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+        long start = System.nanoTime();
         long count = stringRedisTemplate.opsForValue().increment("icr:"+keyPrefix+":"+date);
+        incrSeconds.get(keyPrefix).recordSince(start);
 
         // 3.拼接并返回
         return timestamp << COUNT_BITS | count;
     }
 
+    /**
+     * 生成带分片号的id，分片号可以用shardOf从id中取出
+     */
+    public long nextId(String keyPrefix, int shard) {
+        return withShard(nextId(keyPrefix), shard);
+    }
+
+    /**
+     * 非阻塞生成带分片号的id
+     */
+    public CompletableFuture<Long> nextIdAsync(String keyPrefix, int shard) {
+        return nextIdAsync(keyPrefix).thenApply(id -> withShard(id, shard));
+    }
+
+    public static int shardOf(long id) {
+        return (int) (id & SHARD_MASK);
+    }
+
+    private static long withShard(long id, int shard) {
+        // 时间戳不变，序列号左移让出分片号的位置
+        long timestamp = id >>> COUNT_BITS;
+        long sequence = id & SEQUENCE_MASK;
+        return timestamp << COUNT_BITS | sequence << SHARD_BITS | shard;
+    }
+
+    /**
+     * 非阻塞生成id，INCR的结果在lettuce的io线程中回调，不占用调用线程
+     */
+    public CompletableFuture<Long> nextIdAsync(String keyPrefix) {
+        // 1.生成时间戳
+        LocalDateTime now = LocalDateTime.now();
+        long timestamp = now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        // 2.生成序列号
+        String date = now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+        long start = System.nanoTime();
+        return asyncRedisConnection.async().incr("icr:" + keyPrefix + ":" + date)
+                .toCompletableFuture()
+                // 3.拼接并返回
+                .thenApply(count -> {
+                    incrSeconds.get(keyPrefix).recordSince(start);
+                    return timestamp << COUNT_BITS | count;
+                });
+    }
+
     public static void main(String[] args) {
         LocalDateTime localDateTime = LocalDateTime.of(2025, 1, 1, 0, 0, 0);
         long epochSecond = localDateTime.toEpochSecond(ZoneOffset.UTC);
@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 请求上下文，目前只保存登录用户
+ * 1.请求线程中由拦截器绑定，UserHolder读写的都是这里的上下文
+ * 2.提交到线程池的任务用wrap包装，执行时绑定提交时的上下文，结束后恢复线程原来的上下文
+ * 3.CompletableFuture等回调不在请求线程中执行，先用capture取出上下文，在回调中用run/call绑定，或者直接显式传递
+ * 上下文对象本身不可变，可以在线程间安全共享
+ */
+public final class RequestContext {
+
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<>();
+
+    private static final RequestContext EMPTY = new RequestContext(null);
+
+    private final UserDTO user;
+
+    private RequestContext(UserDTO user) {
+        this.user = user;
+    }
+
+    public UserDTO getUser() {
+        return user;
+    }
+
+    public static RequestContext of(UserDTO user) {
+        return user == null ? EMPTY : new RequestContext(user);
+    }
+
+    /**
+     * 当前线程绑定的上下文，没有时返回空上下文，不会返回null
+     */
+    public static RequestContext capture() {
+        RequestContext context = CURRENT.get();
+        return context == null ? EMPTY : context;
+    }
+
+    public static void bind(RequestContext context) {
+        if (context == null || context == EMPTY) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+    }
+
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * 在当前上下文中执行，结束后恢复线程原来的上下文
+     */
+    public void run(Runnable task) {
+        RequestContext previous = CURRENT.get();
+        bind(this);
+        try {
+            task.run();
+        } finally {
+            bind(previous);
+        }
+    }
+
+    public <T> T call(Supplier<T> task) {
+        RequestContext previous = CURRENT.get();
+        bind(this);
+        try {
+            return task.get();
+        } finally {
+            bind(previous);
+        }
+    }
+
+    /**
+     * 包装任务，执行时绑定提交任务时的上下文
+     */
+    public static Runnable wrap(Runnable task) {
+        RequestContext context = capture();
+        return () -> context.run(task);
+    }
+
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        RequestContext context = capture();
+        return () -> {
+            RequestContext previous = CURRENT.get();
+            bind(context);
+            try {
+                return task.call();
+            } finally {
+                bind(previous);
+            }
+        };
+    }
+
+    /**
+     * 包装CompletableFuture的回调函数，回调在其它线程执行时也能读到上下文
+     */
+    public static <T, R> Function<T, R> wrap(Function<T, R> fn) {
+        RequestContext context = capture();
+        return t -> context.call(() -> fn.apply(t));
+    }
+}
@@ -0,0 +1,17 @@
+package com.hmdp.utils;
+
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.stereotype.Component;
+
+/**
+ * 线程池任务装饰器，把提交任务时的请求上下文带到执行线程
+ * spring boot会把唯一的TaskDecorator配置到默认的applicationTaskExecutor，@Async和mvc的Callable异步请求都会经过它
+ */
+@Component
+public class RequestContextTaskDecorator implements TaskDecorator {
+
+    @Override
+    public Runnable decorate(Runnable runnable) {
+        return RequestContext.wrap(runnable);
+    }
+}
@@ -0,0 +1,142 @@
+package com.hmdp.utils;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 只读GET接口的响应缓存
+ * 缓存的是序列化好的Result响应体，命中时直接写到输出流，不再反序列化成实体、也不再由jackson序列化
+ * redis中每个路径一个hash：etag为响应体的摘要，body为响应体
+ * 对应的数据更新时调用evict删除
+ */
+@Component
+public class ResponseCache {
+
+    private static final byte[] ETAG_FIELD = "etag".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BODY_FIELD = "body".getBytes(StandardCharsets.UTF_8);
+
+    @Value("${hmdp.response-cache.enabled:true}")
+    private boolean enabled;
+    // 店铺详情、店铺类型的缓存时间，秒
+    @Value("${hmdp.response-cache.ttl-seconds:1800}")
+    private long ttlSeconds;
+    // 店铺优惠券列表中有实时的秒杀库存，只缓存很短的时间，秒
+    @Value("${hmdp.response-cache.voucher-ttl-seconds:2}")
+    private long voucherTtlSeconds;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final List<Route> routes = new ArrayList<>();
+
+    /**
+     * 可以缓存的接口，name为统计时的标签
+     */
+    public static class Route {
+        private final String name;
+        private final Pattern pattern;
+        private final long ttlSeconds;
+
+        private Route(String name, String regex, long ttlSeconds) {
+            this.name = name;
+            this.pattern = Pattern.compile(regex);
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static class Entry {
+        private final String etag;
+        private final byte[] body;
+
+        private Entry(String etag, byte[] body) {
+            this.etag = etag;
+            this.body = body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        routes.add(new Route("/shop/{id}", "/shop/\\d+", ttlSeconds));
+        routes.add(new Route("/shop-type/list", "/shop-type/list", ttlSeconds));
+        routes.add(new Route("/voucher/list/{shopId}", "/voucher/list/\\d+", voucherTtlSeconds));
+    }
+
+    /**
+     * 路径对应的可缓存接口，不可缓存或未开启时返回null
+     */
+    public Route match(String path) {
+        if (!enabled) {
+            return null;
+        }
+        for (Route route : routes) {
+            if (route.pattern.matcher(path).matches()) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    public Entry get(String path) {
+        byte[] key = key(path);
+        List<byte[]> values = stringRedisTemplate.execute(
+                (RedisCallback<List<byte[]>>) connection -> connection.hMGet(key, ETAG_FIELD, BODY_FIELD));
+        if (values == null || values.size() < 2 || values.get(0) == null || values.get(1) == null) {
+            return null;
+        }
+        return new Entry(new String(values.get(0), StandardCharsets.UTF_8), values.get(1));
+    }
+
+    public Entry put(Route route, String path, byte[] body) {
+        // 强校验的etag，内容不变时各节点算出的值相同
+        Entry entry = new Entry("\"" + DigestUtil.md5Hex(body) + "\"", body);
+        byte[] key = key(path);
+        Map<byte[], byte[]> hash = new HashMap<>(4);
+        hash.put(ETAG_FIELD, entry.etag.getBytes(StandardCharsets.UTF_8));
+        hash.put(BODY_FIELD, body);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hMSet(key, hash);
+            connection.expire(key, route.ttlSeconds);
+            return null;
+        });
+        return entry;
+    }
+
+    /**
+     * 数据更新后删除对应路径的响应缓存
+     * 在事务中调用时等到提交之后再删除，提交前删除时，并发的未命中请求会读到旧数据重新写入缓存
+     */
+    public void evict(String path) {
+        String key = CACHE_RESPONSE_KEY + path;
+        TransactionUtils.afterCommit(() -> stringRedisTemplate.delete(key));
+    }
+
+    private static byte[] key(String path) {
+        return (CACHE_RESPONSE_KEY + path).getBytes(StandardCharsets.UTF_8);
+    }
+}
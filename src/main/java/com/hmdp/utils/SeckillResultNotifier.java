@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillResultDTO;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀订单结果通道
+ * 消费者落库后把结果写入 seckill:result:用户id:订单id 并广播，客户端可以长轮询等待结果
+ * key中带有用户id，用户只能查询和等待自己的订单
+ */
+@Component
+public class SeckillResultNotifier {
+
+    // 长轮询最长等待时间
+    private static final long MAX_WAIT_MILLIS = 10_000L;
+
+    // 用户id:订单id -> 等待的请求
+    private final Map<String, Queue<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @PostConstruct
+    private void init() {
+        // 消息格式 userId:orderId=结果，任意节点落库后所有节点上等待的请求都能收到
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int idx = body.indexOf('=');
+            int sep = body.indexOf(':');
+            if (sep > 0 && idx > sep) {
+                String waiter = body.substring(0, idx);
+                Long orderId = Long.valueOf(body.substring(sep + 1, idx));
+                complete(waiter, SeckillResultDTO.parse(orderId, body.substring(idx + 1)));
+            }
+        }, new ChannelTopic(SECKILL_RESULT_CHANNEL));
+    }
+
+    /**
+     * 秒杀成功后记录结果为排队中
+     * 不在秒杀脚本中写入：结果key没有优惠券分区的hash tag，redis集群中和脚本访问的key不在同一个slot
+     * 用SETNX，消费者已经写入最终结果时不会被覆盖回排队中
+     */
+    public void pending(Long userId, Long orderId) {
+        stringRedisTemplate.opsForValue().setIfAbsent(resultKey(userId, orderId), SeckillResultDTO.PENDING,
+                SECKILL_RESULT_TTL, TimeUnit.SECONDS);
+    }
+
+    public static String resultKey(Long userId, Long orderId) {
+        return SECKILL_RESULT_KEY + waiter(userId, orderId);
+    }
+
+    /**
+     * 记录订单的落库结果并通知等待的请求
+     * @param reason 失败原因，成功时为null
+     */
+    public void publish(Long userId, Long orderId, String reason) {
+        String value = reason == null ? SeckillResultDTO.SUCCESS : SeckillResultDTO.FAILED + ":" + reason;
+        String waiter = waiter(userId, orderId);
+        stringRedisTemplate.opsForValue().set(SECKILL_RESULT_KEY + waiter, value, SECKILL_RESULT_TTL, TimeUnit.SECONDS);
+        stringRedisTemplate.convertAndSend(SECKILL_RESULT_CHANNEL, waiter + "=" + value);
+    }
+
+    /**
+     * 查询用户自己的订单结果，尚未出结果时最多等待waitMillis
+     * @param fallback redis中没有结果时的兜底查询，例如查数据库，同样只能返回该用户的订单
+     */
+    public DeferredResult<Result> await(Long userId, Long orderId, long waitMillis, Function<Long, SeckillResultDTO> fallback) {
+        String waiter = waiter(userId, orderId);
+        long timeout = Math.min(Math.max(waitMillis, 0L), MAX_WAIT_MILLIS);
+        DeferredResult<Result> deferred = new DeferredResult<>(timeout == 0 ? null : timeout);
+        if (timeout > 0) {
+            // 1.先注册再查询，避免查询和注册之间的结果通知丢失
+            Queue<DeferredResult<Result>> queue = waiters.computeIfAbsent(waiter, k -> new ConcurrentLinkedQueue<>());
+            queue.add(deferred);
+            deferred.onCompletion(() -> remove(waiter, deferred));
+            deferred.onTimeout(() -> deferred.setResult(Result.ok(query(waiter, orderId, fallback))));
+        }
+        // 2.已经有结果，或者不需要等待，直接返回
+        SeckillResultDTO result = query(waiter, orderId, fallback);
+        if (result.isFinished() || timeout == 0) {
+            deferred.setResult(Result.ok(result));
+        }
+        return deferred;
+    }
+
+    private static String waiter(Long userId, Long orderId) {
+        return userId + ":" + orderId;
+    }
+
+    private SeckillResultDTO query(String waiter, Long orderId, Function<Long, SeckillResultDTO> fallback) {
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_RESULT_KEY + waiter);
+        if (value == null && fallback != null) {
+            return fallback.apply(orderId);
+        }
+        return SeckillResultDTO.parse(orderId, value);
+    }
+
+    private void complete(String waiter, SeckillResultDTO result) {
+        Queue<DeferredResult<Result>> queue = waiters.remove(waiter);
+        if (queue == null) {
+            return;
+        }
+        for (DeferredResult<Result> deferred : queue) {
+            deferred.setResult(Result.ok(result));
+        }
+    }
+
+    private void remove(String waiter, DeferredResult<Result> deferred) {
+        waiters.computeIfPresent(waiter, (k, queue) -> {
+            queue.remove(deferred);
+            return queue.isEmpty() ? null : queue;
+        });
+    }
+}
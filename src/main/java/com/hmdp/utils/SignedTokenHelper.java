@@ -0,0 +1,161 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 无状态的签名token：用户信息和过期时间直接放在token中，用HMAC-SHA256签名
+ * 格式 base64url(jti \t id \t expireAt \t nickName \t icon) . base64url(hmac)
+ * 校验只需要本地计算一次HMAC，不访问redis
+ */
+@Component
+public class SignedTokenHelper {
+
+    public static final String MODE_REDIS = "redis";
+    public static final String MODE_SIGNED = "signed";
+
+    private static final String ALGORITHM = "HmacSHA256";
+    // 曾经提交在配置文件中的示例密钥，任何人都能看到，不允许使用
+    private static final String PLACEHOLDER_SECRET = "hmdp-dev-session-secret-change-me";
+    private static final int MIN_SECRET_LENGTH = 32;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    @Value("${hmdp.session.mode:redis}")
+    private String mode;
+
+    @Value("${hmdp.session.secret:}")
+    private String secret;
+
+    @Resource
+    private TokenDenylist tokenDenylist;
+
+    // Mac不是线程安全的，每个线程一个实例
+    private ThreadLocal<Mac> macHolder;
+
+    @Getter
+    @AllArgsConstructor
+    public static class TokenInfo {
+        private final String token;
+        private final String jti;
+        private final long expireAt;
+        private final UserDTO user;
+    }
+
+    @PostConstruct
+    private void init() {
+        // 1.只有签名模式才创建Mac，其他模式下parse和verify总是返回null，不接受任何签名token
+        if (!isSignedMode()) {
+            return;
+        }
+        // 2.密钥从环境变量HMDP_SESSION_SECRET注入，不能为空、不能是示例密钥，长度至少32
+        if (StrUtil.isBlank(secret)) {
+            throw new IllegalStateException("签名token模式必须配置hmdp.session.secret");
+        }
+        if (PLACEHOLDER_SECRET.equals(secret) || secret.length() < MIN_SECRET_LENGTH) {
+            throw new IllegalStateException("hmdp.session.secret不安全，请使用至少" + MIN_SECRET_LENGTH + "位的随机密钥");
+        }
+        SecretKeySpec key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        macHolder = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public boolean isSignedMode() {
+        return MODE_SIGNED.equals(mode);
+    }
+
+    /**
+     * 签名token中一定包含'.'，redis模式的UUID token不包含
+     */
+    public static boolean isSignedToken(String token) {
+        return token.indexOf('.') > 0;
+    }
+
+    public TokenInfo issue(UserDTO user) {
+        if (macHolder == null) {
+            throw new IllegalStateException("未启用签名token模式");
+        }
+        String jti = UUID.fastUUID().toString(true);
+        long expireAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        String payload = jti + '\t' + user.getId() + '\t' + expireAt + '\t'
+                + StrUtil.nullToEmpty(user.getNickName()) + '\t' + StrUtil.nullToEmpty(user.getIcon());
+        String body = ENCODER.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        String token = body + '.' + ENCODER.encodeToString(sign(body));
+        return new TokenInfo(token, jti, expireAt, user);
+    }
+
+    /**
+     * 校验签名和有效期，并检查是否已被吊销
+     * @return 校验失败返回null
+     */
+    public TokenInfo verify(String token) {
+        TokenInfo info = parse(token);
+        if (info == null || info.getExpireAt() < System.currentTimeMillis() || tokenDenylist.isDenied(info.getJti())) {
+            return null;
+        }
+        return info;
+    }
+
+    /**
+     * 只校验签名，不校验有效期和黑名单，用于登出
+     */
+    public TokenInfo parse(String token) {
+        if (macHolder == null) {
+            return null;
+        }
+        int idx = token.indexOf('.');
+        if (idx <= 0) {
+            return null;
+        }
+        String body = token.substring(0, idx);
+        // 比较编码后的签名而不是解码后的字节，base64末尾的空闲位被改动也会被拒绝，每个token只有一种写法
+        byte[] expected = ENCODER.encode(sign(body));
+        byte[] signature = token.substring(idx + 1).getBytes(StandardCharsets.ISO_8859_1);
+        // 常量时间比较，防止时序攻击
+        if (!MessageDigest.isEqual(expected, signature)) {
+            return null;
+        }
+        try {
+            String[] fields = new String(DECODER.decode(body), StandardCharsets.UTF_8).split("\t", 5);
+            if (fields.length != 5) {
+                return null;
+            }
+            UserDTO user = new UserDTO();
+            user.setId(Long.valueOf(fields[1]));
+            user.setNickName(fields[3]);
+            user.setIcon(fields[4]);
+            return new TokenInfo(token, fields[0], Long.parseLong(fields[2]), user);
+        } catch (IllegalArgumentException e) {
+            // base64或数字格式错误
+            return null;
+        }
+    }
+
+    private byte[] sign(String body) {
+        return macHolder.get().doFinal(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,8 +1,11 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.lang.UUID;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 
+import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 
 public class SimpleRedisLock implements ILock{
@@ -17,6 +20,12 @@ public class SimpleRedisLock implements ILock{
 
     private static final String KEY_PREFIX = "lock:";
     private static final String ID_PREFIX = UUID.randomUUID().toString(true)+"-";   // true去除横线
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("lua/unlock.lua"));
+    }
 
     @Override
     public boolean tryLock(long timeoutSec) {
@@ -32,12 +41,7 @@ public class SimpleRedisLock implements ILock{
     public void unlock() {
         // 获取线程标识
         String threadID = ID_PREFIX+Thread.currentThread().getId();
-        // 获取锁的值
-        String value= stringRedisTemplate.opsForValue().get(KEY_PREFIX + name);
-        if(threadID.equals(value)){
-            // 释放锁
-            stringRedisTemplate.delete(KEY_PREFIX + name);
-        }
-
+        // 判断是否是自己的锁并释放，用lua脚本保证原子性，锁已过期被别人拿到时不会误删
+        stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(KEY_PREFIX + name), threadID);
     }
 }
@@ -5,4 +5,11 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+
+    // 订单状态，1：未支付；2：已支付；3：已核销；4：已取消；5：退款中；6：已退款
+    public static final int ORDER_STATUS_UNPAID = 1;
+    public static final int ORDER_STATUS_PAID = 2;
+    public static final int ORDER_STATUS_CANCELLED = 4;
+    // 未支付订单的超时时间，分钟
+    public static final long ORDER_PAY_TIMEOUT = 15L;
 }
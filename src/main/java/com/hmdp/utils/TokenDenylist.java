@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 已吊销的签名token黑名单
+ * redis中是一个ZSET，member为token的jti，score为token的过期时间，过期后即可删除，所以体积很小
+ * 每个节点在本地保存一份镜像，校验token时不需要访问redis，镜像定时从redis重新加载，广播只用来加快生效
+ * 只在签名token模式下使用，redis模式下不订阅、不加载也不清理
+ */
+@Component
+public class TokenDenylist {
+
+    private final Map<String, Long> denied = new ConcurrentHashMap<>();
+
+    @Value("${hmdp.session.mode:redis}")
+    private String mode;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @PostConstruct
+    private void init() {
+        if (!SignedTokenHelper.MODE_SIGNED.equals(mode)) {
+            return;
+        }
+        // 1.订阅吊销广播，只用来加快传播，监听器要等容器启动后才生效，重连期间的消息也会丢失
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                addLocal(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(LOGIN_DENY_CHANNEL));
+        // 2.加载所有未过期的黑名单，之后由reload定时从redis重新加载，丢失的广播最多延迟一个周期生效
+        reload();
+    }
+
+    public boolean isDenied(String jti) {
+        return denied.containsKey(jti);
+    }
+
+    /**
+     * 吊销token，所有节点立即生效
+     * @param jti token的唯一id
+     * @param expireAt token的过期时间，毫秒
+     */
+    public void deny(String jti, long expireAt) {
+        deny(Collections.singletonMap(jti, expireAt));
+    }
+
+    /**
+     * 批量吊销，一次ZADD和一条广播
+     * @param tokens jti -> 过期时间
+     */
+    public void deny(Map<String, Long> tokens) {
+        long now = System.currentTimeMillis();
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+        StringBuilder message = new StringBuilder();
+        tokens.forEach((jti, expireAt) -> {
+            if (expireAt <= now) {
+                return;
+            }
+            denied.put(jti, expireAt);
+            tuples.add(new DefaultTypedTuple<>(jti, expireAt.doubleValue()));
+            if (message.length() > 0) {
+                message.append(',');
+            }
+            message.append(jti).append(':').append(expireAt);
+        });
+        if (tuples.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.opsForZSet().add(LOGIN_DENYLIST_KEY, tuples);
+        stringRedisTemplate.convertAndSend(LOGIN_DENY_CHANNEL, message.toString());
+    }
+
+    /**
+     * 定时从redis重新加载黑名单，并清理已经自然过期的记录
+     * redis中的ZSET是唯一可信的数据，本地镜像以它为准
+     */
+    @Scheduled(fixedDelay = 10_000L)
+    public void reload() {
+        if (!SignedTokenHelper.MODE_SIGNED.equals(mode)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        // 1.删除redis中过期的记录，再加载所有未过期的
+        stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_DENYLIST_KEY, 0, now);
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .rangeByScoreWithScores(LOGIN_DENYLIST_KEY, now, Double.MAX_VALUE);
+        Map<String, Long> loaded = new HashMap<>();
+        if (tuples != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                if (tuple.getValue() != null && tuple.getScore() != null) {
+                    loaded.put(tuple.getValue(), tuple.getScore().longValue());
+                }
+            }
+        }
+        // 2.加载的结果写入本地镜像，丢失广播的记录在这里补上
+        // 本地多出的记录是读取之后才收到的广播，保留到自然过期
+        denied.putAll(loaded);
+        denied.values().removeIf(expireAt -> expireAt <= now);
+    }
+
+    private void addLocal(String body) {
+        // 消息格式 jti:expireAt,jti:expireAt
+        for (String item : body.split(",")) {
+            int idx = item.lastIndexOf(':');
+            if (idx > 0) {
+                denied.put(item.substring(0, idx), Long.parseLong(item.substring(idx + 1)));
+            }
+        }
+    }
+}
@@ -2,18 +2,20 @@ package com.hmdp.utils;
 
 import com.hmdp.dto.UserDTO;
 
+/**
+ * 当前登录用户，保存在请求上下文中，跨线程传递见RequestContext
+ */
 public class UserHolder {
-    private static final ThreadLocal<UserDTO> tl = new ThreadLocal<>();
 
     public static void saveUser(UserDTO user){
-        tl.set(user);
+        RequestContext.bind(RequestContext.of(user));
     }
 
     public static UserDTO getUser(){
-        return tl.get();
+        return RequestContext.capture().getUser();
     }
 
     public static void removeUser(){
-        tl.remove();
+        RequestContext.clear();
     }
 }
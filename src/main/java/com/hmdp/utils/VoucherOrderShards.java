@@ -0,0 +1,84 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.function.Supplier;
+
+/**
+ * 订单分表
+ * 1.订单按 userId % 分片数 存到 tb_voucher_order_{分片}，同一用户的订单在同一张表中，一人一单的唯一索引仍然有效
+ * 2.订单id的低位保存分片号（见RedisIdWorker），只有订单id时也能直接定位分片，不需要查询所有分表
+ * 3.访问订单表的代码在call/run中执行，sql中的tb_voucher_order由MybatisConfig中的动态表名替换为当前分片的表
+ *   没有指定分片时访问订单表直接报错，防止查到错误的表
+ * 按voucherId查询（对账、预热）需要遍历所有分片
+ */
+@Component
+public class VoucherOrderShards {
+
+    public static final String LOGIC_TABLE = "tb_voucher_order";
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    @Value("${hmdp.order.shards:4}")
+    private int shards;
+
+    @PostConstruct
+    private void init() {
+        if (shards < 1 || shards > RedisIdWorker.MAX_SHARDS) {
+            throw new IllegalStateException("订单分片数必须在1~" + RedisIdWorker.MAX_SHARDS + "之间：" + shards);
+        }
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public int shardOfUser(Long userId) {
+        return (int) Math.floorMod(userId, (long) shards);
+    }
+
+    public static int shardOfOrder(Long orderId) {
+        return RedisIdWorker.shardOf(orderId);
+    }
+
+    public static String table(int shard) {
+        return LOGIC_TABLE + "_" + shard;
+    }
+
+    /**
+     * 在指定分片上执行，可以嵌套，结束后恢复原来的分片
+     */
+    public static <T> T call(int shard, Supplier<T> task) {
+        Integer previous = CURRENT.get();
+        CURRENT.set(shard);
+        try {
+            return task.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public static void run(int shard, Runnable task) {
+        call(shard, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * 动态表名：当前分片的订单表
+     */
+    public static String currentTable() {
+        Integer shard = CURRENT.get();
+        if (shard == null) {
+            throw new IllegalStateException("访问订单表前没有指定分片");
+        }
+        return table(shard);
+    }
+}
@@ -0,0 +1,49 @@
+-- ----------------------------
+-- 订单分表迁移：把 tb_voucher_order 中已有的订单按 user_id % 4 复制到 tb_voucher_order_{0~3}
+-- 分片数与 hmdp.order.shards 一致；执行前停止订单落库（消费线程与超时取消任务）
+-- 旧表没有 (user_id, voucher_id) 唯一索引，重复下单的数据只保留 id 最小的一条
+-- 旧表保留为 tb_voucher_order_bak，核对无误后再手动删除
+-- ----------------------------
+SET NAMES utf8mb4;
+
+-- 1.创建分表（已按 hmdp.sql 建好时跳过）
+CREATE TABLE IF NOT EXISTS `tb_voucher_order_0`  (
+  `id` bigint(20) NOT NULL COMMENT '主键',
+  `user_id` bigint(20) UNSIGNED NOT NULL COMMENT '下单的用户id',
+  `voucher_id` bigint(20) UNSIGNED NOT NULL COMMENT '购买的代金券id',
+  `pay_type` tinyint(1) UNSIGNED NOT NULL DEFAULT 1 COMMENT '支付方式 1：余额支付；2：支付宝；3：微信',
+  `status` tinyint(1) UNSIGNED NOT NULL DEFAULT 1 COMMENT '订单状态，1：未支付；2：已支付；3：已核销；4：已取消；5：退款中；6：已退款',
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '下单时间',
+  `pay_time` timestamp NULL DEFAULT NULL COMMENT '支付时间',
+  `use_time` timestamp NULL DEFAULT NULL COMMENT '核销时间',
+  `refund_time` timestamp NULL DEFAULT NULL COMMENT '退款时间',
+  `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_user_voucher`(`user_id`, `voucher_id`) USING BTREE,
+  INDEX `idx_voucher_id`(`voucher_id`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
+CREATE TABLE IF NOT EXISTS `tb_voucher_order_1` LIKE `tb_voucher_order_0`;
+CREATE TABLE IF NOT EXISTS `tb_voucher_order_2` LIKE `tb_voucher_order_0`;
+CREATE TABLE IF NOT EXISTS `tb_voucher_order_3` LIKE `tb_voucher_order_0`;
+
+-- 2.按 user_id % 4 复制订单，可重复执行
+INSERT IGNORE INTO `tb_voucher_order_0` (`id`, `user_id`, `voucher_id`, `pay_type`, `status`, `create_time`, `pay_time`, `use_time`, `refund_time`, `update_time`)
+SELECT `id`, `user_id`, `voucher_id`, `pay_type`, `status`, `create_time`, `pay_time`, `use_time`, `refund_time`, `update_time`
+FROM `tb_voucher_order` WHERE `user_id` % 4 = 0 ORDER BY `id`;
+INSERT IGNORE INTO `tb_voucher_order_1` (`id`, `user_id`, `voucher_id`, `pay_type`, `status`, `create_time`, `pay_time`, `use_time`, `refund_time`, `update_time`)
+SELECT `id`, `user_id`, `voucher_id`, `pay_type`, `status`, `create_time`, `pay_time`, `use_time`, `refund_time`, `update_time`
+FROM `tb_voucher_order` WHERE `user_id` % 4 = 1 ORDER BY `id`;
+INSERT IGNORE INTO `tb_voucher_order_2` (`id`, `user_id`, `voucher_id`, `pay_type`, `status`, `create_time`, `pay_time`, `use_time`, `refund_time`, `update_time`)
+SELECT `id`, `user_id`, `voucher_id`, `pay_type`, `status`, `create_time`, `pay_time`, `use_time`, `refund_time`, `update_time`
+FROM `tb_voucher_order` WHERE `user_id` % 4 = 2 ORDER BY `id`;
+INSERT IGNORE INTO `tb_voucher_order_3` (`id`, `user_id`, `voucher_id`, `pay_type`, `status`, `create_time`, `pay_time`, `use_time`, `refund_time`, `update_time`)
+SELECT `id`, `user_id`, `voucher_id`, `pay_type`, `status`, `create_time`, `pay_time`, `use_time`, `refund_time`, `update_time`
+FROM `tb_voucher_order` WHERE `user_id` % 4 = 3 ORDER BY `id`;
+
+-- 3.核对数量：旧表行数 = 各分表行数之和 + 重复下单被忽略的行数
+SELECT (SELECT COUNT(*) FROM `tb_voucher_order`) AS old_count,
+       (SELECT COUNT(*) FROM `tb_voucher_order_0`) + (SELECT COUNT(*) FROM `tb_voucher_order_1`)
+     + (SELECT COUNT(*) FROM `tb_voucher_order_2`) + (SELECT COUNT(*) FROM `tb_voucher_order_3`) AS shard_count;
+
+-- 4.旧表改名保留
+RENAME TABLE `tb_voucher_order` TO `tb_voucher_order_bak`;
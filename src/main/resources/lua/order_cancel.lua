@@ -0,0 +1,14 @@
+-- 超时取消订单后归还redis库存，以删除取消标记成功为准，保证只归还一次
+-- 取消标记在数据库取消之前写入，数据库提交后、脚本执行前宕机时标记还在，订单也还在超时队列中，下一轮会再次执行脚本
+-- 订单在脚本之后才移出超时队列，两个key带有同一个分区的hash tag
+-- KEYS[1] 库存key，KEYS[2] 取消中的订单集合key
+-- ARGV[1] 订单id
+if (redis.call('srem', KEYS[2], ARGV[1]) == 0) then
+    -- 已经归还过
+    return 0
+end
+-- 库存不在redis中时不归还，预热时会从数据库恢复
+if (redis.call('exists', KEYS[1]) == 1) then
+    redis.call('incrby', KEYS[1], 1)
+end
+return 1
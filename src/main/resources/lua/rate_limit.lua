@@ -0,0 +1,24 @@
+-- 滑动窗口限流，窗口内的每次放行记录为ZSET中的一个成员
+-- 1.参数列表
+-- 1.1 限流key
+local key = KEYS[1]
+-- 1.2 当前时间，毫秒
+local now = tonumber(ARGV[1])
+-- 1.3 窗口大小，毫秒
+local window = tonumber(ARGV[2])
+-- 1.4 窗口内允许的次数
+local limit = tonumber(ARGV[3])
+-- 1.5 本次请求的唯一标识
+local member = ARGV[4]
+
+-- 2.移除窗口之外的记录
+redis.call('zremrangebyscore', key, 0, now - window)
+-- 3.判断窗口内的次数
+if (redis.call('zcard', key) >= limit) then
+    -- 超过限制，返回0
+    return 0
+end
+-- 4.记录本次请求并设置过期时间
+redis.call('zadd', key, now, member)
+redis.call('pexpire', key, window)
+return 1
@@ -5,16 +5,35 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 -- 1.3 订单id
 local orderId = ARGV[3]
+-- 1.4 当前时间，毫秒
+local now = tonumber(ARGV[4])
 
--- 2.key
+-- 2.key，由调用方按优惠券所在分区生成，都带有分区的hash tag，redis集群中在同一个slot
 -- 2.1库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2库存id
-local orderKey = 'seckill:order:' .. voucherId
+local stockKey = KEYS[1]
+-- 2.2已下单用户key
+local orderKey = KEYS[2]
+-- 2.3秒杀时间窗口key
+local windowKey = KEYS[3]
+-- 2.4用户的订单id，对账重新投递丢失的订单时沿用原来的订单id
+local orderIdKey = KEYS[4]
+-- 2.5订单队列key，优惠券所在的分区
+local streamKey = KEYS[5]
 
 -- 3.脚本业务
+-- 3.0.判断是否在秒杀时间内，没有预热时间窗口的不判断
+local window = redis.call('hmget', windowKey, 'begin', 'end')
+if (window[1] and (now < tonumber(window[1]) or now > tonumber(window[2]))) then
+    -- 秒杀未开始或已结束，返回3
+    return 3
+end
 -- 3.1.判断库存是否充足
-if(tonumber(redis.call('get',stockKey)) <= 0) then
+local stock = redis.call('get', stockKey)
+if (not stock) then
+    -- 库存尚未加载到redis，返回3
+    return 3
+end
+if(tonumber(stock) <= 0) then
     -- 库存不足，返回1
     return 1
 end
@@ -27,9 +46,10 @@ end
 
 -- 3.4 扣库存 incrby stockKey -1
 redis.call('incrby',stockKey,-1)
--- 3.5 下单 sadd orderKey userId
+-- 3.5 下单 sadd orderKey userId，并记录订单id
 redis.call('sadd',orderKey,userId)
--- 3.6 发送信息到消息队列 xadd stream.orders * k1 v1 k2 v2
-redis.call("xadd","stream.orders","*",'userId',userId,'voucherId',voucherId,'id',orderId)
+redis.call('hset',orderIdKey,userId,orderId)
+-- 3.6 发送信息到消息队列 xadd stream.orders:{partition} * k1 v1 k2 v2
+redis.call("xadd",streamKey,"*",'userId',userId,'voucherId',voucherId,'id',orderId)
 
-return 0
\ No newline at end of file
+return 0
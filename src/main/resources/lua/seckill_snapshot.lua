@@ -0,0 +1,8 @@
+-- 原子地读取秒杀券的库存、已下单用户数和正在取消的订单数，库存和已下单用户数在seckill.lua中总是同时变化
+-- KEYS[1] 库存key，KEYS[2] 已下单用户集合key，KEYS[3] 正在取消的订单集合key
+local stock = redis.call('get', KEYS[1])
+if (not stock) then
+    -- 库存不存在（尚未预热或被清空），返回空
+    return nil
+end
+return {tonumber(stock), redis.call('scard', KEYS[2]), redis.call('scard', KEYS[3])}
@@ -0,0 +1,5 @@
+-- 原子地取出并删除用户的会话索引，取出之后并发登录写入的会话留在新的索引中，不会被漏掉
+-- KEYS[1] 会话索引key
+local members = redis.call('smembers', KEYS[1])
+redis.call('del', KEYS[1])
+return members
@@ -0,0 +1,6 @@
+-- 比较锁中的线程标识与当前线程标识是否一致，一致才删除，判断和删除是原子的
+-- KEYS[1] 锁的key，ARGV[1] 当前线程标识
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('del', KEYS[1])
+end
+return 0
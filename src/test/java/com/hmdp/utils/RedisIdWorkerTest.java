@@ -0,0 +1,57 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RedisIdWorkerTest {
+
+    private static long withShard(long id, int shard) {
+        Long result = ReflectionTestUtils.invokeMethod(RedisIdWorker.class, "withShard", id, shard);
+        assertNotNull(result);
+        return result;
+    }
+
+    @Test
+    void shardRoundTrip() {
+        long id = 12345L << 32 | 678;
+        for (int shard = 0; shard < RedisIdWorker.MAX_SHARDS; shard++) {
+            assertEquals(shard, RedisIdWorker.shardOf(withShard(id, shard)));
+        }
+    }
+
+    @Test
+    void bitLayout() {
+        long timestamp = 12345L;
+        long sequence = 678L;
+        long id = withShard(timestamp << 32 | sequence, 3);
+
+        // 高32位时间戳不变，中间24位序列号，低8位分片号
+        assertEquals(timestamp, id >>> 32);
+        assertEquals(sequence, (id >>> 8) & 0xFFFFFF);
+        assertEquals(3, id & 0xFF);
+        assertTrue(id > 0);
+    }
+
+    @Test
+    void sequenceKeepsLow24Bits() {
+        long timestamp = 1L;
+        long id = withShard(timestamp << 32 | 0xFFFFFFFFL, 255);
+
+        assertEquals(timestamp, id >>> 32);
+        assertEquals(0xFFFFFF, (id >>> 8) & 0xFFFFFF);
+        assertEquals(255, RedisIdWorker.shardOf(id));
+    }
+
+    @Test
+    void idsStayOrderedWithinSecond() {
+        long timestamp = 12345L << 32;
+        long first = withShard(timestamp | 1, 200);
+        long second = withShard(timestamp | 2, 0);
+        long nextSecond = withShard((12346L << 32) | 1, 0);
+
+        assertTrue(first < second);
+        assertTrue(second < nextSecond);
+    }
+}
@@ -0,0 +1,133 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SignedTokenHelperTest {
+
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+    private TokenDenylist tokenDenylist;
+    private SignedTokenHelper helper;
+
+    @BeforeEach
+    void setUp() {
+        tokenDenylist = new TokenDenylist();
+        helper = newHelper(SignedTokenHelper.MODE_SIGNED, SECRET);
+    }
+
+    private SignedTokenHelper newHelper(String mode, String secret) {
+        SignedTokenHelper helper = new SignedTokenHelper();
+        ReflectionTestUtils.setField(helper, "mode", mode);
+        ReflectionTestUtils.setField(helper, "secret", secret);
+        ReflectionTestUtils.setField(helper, "tokenDenylist", tokenDenylist);
+        ReflectionTestUtils.invokeMethod(helper, "init");
+        return helper;
+    }
+
+    private static UserDTO user() {
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("小鱼同学");
+        user.setIcon("/imgs/icons/user.jpg");
+        return user;
+    }
+
+    @Test
+    void issuedTokenVerifies() {
+        SignedTokenHelper.TokenInfo issued = helper.issue(user());
+        assertTrue(SignedTokenHelper.isSignedToken(issued.getToken()));
+
+        SignedTokenHelper.TokenInfo info = helper.verify(issued.getToken());
+        assertNotNull(info);
+        assertEquals(issued.getJti(), info.getJti());
+        assertEquals(issued.getExpireAt(), info.getExpireAt());
+        assertEquals(1010L, info.getUser().getId());
+        assertEquals("小鱼同学", info.getUser().getNickName());
+        assertEquals("/imgs/icons/user.jpg", info.getUser().getIcon());
+    }
+
+    @Test
+    void tamperedBodyIsRejected() {
+        String token = helper.issue(user()).getToken();
+        int idx = token.indexOf('.');
+        String payload = new String(Base64.getUrlDecoder().decode(token.substring(0, idx)), StandardCharsets.UTF_8);
+        String forged = payload.replace("\t1010\t", "\t1\t");
+        String body = Base64.getUrlEncoder().withoutPadding().encodeToString(forged.getBytes(StandardCharsets.UTF_8));
+
+        assertNull(helper.verify(body + token.substring(idx)));
+        assertNull(helper.parse(body + token.substring(idx)));
+    }
+
+    @Test
+    void tamperedSignatureIsRejected() {
+        String token = helper.issue(user()).getToken();
+        char last = token.charAt(token.length() - 1);
+        String forged = token.substring(0, token.length() - 1) + (last == 'A' ? 'B' : 'A');
+
+        assertNull(helper.verify(forged));
+        assertNull(helper.verify(token.substring(0, token.indexOf('.') + 1)));
+        assertNull(helper.verify(token + "!"));
+    }
+
+    @Test
+    void tokenSignedWithOtherSecretIsRejected() {
+        SignedTokenHelper other = newHelper(SignedTokenHelper.MODE_SIGNED, SECRET.toUpperCase());
+        assertNull(helper.verify(other.issue(user()).getToken()));
+    }
+
+    @Test
+    void expiredTokenIsRejectedButStillParses() {
+        String token = helper.issue(user()).getToken();
+        int idx = token.indexOf('.');
+        String payload = new String(Base64.getUrlDecoder().decode(token.substring(0, idx)), StandardCharsets.UTF_8);
+        String[] fields = payload.split("\t", 5);
+        fields[2] = String.valueOf(System.currentTimeMillis() - 1000);
+        String body = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(String.join("\t", fields).getBytes(StandardCharsets.UTF_8));
+        byte[] signature = ReflectionTestUtils.invokeMethod(helper, "sign", body);
+        String expired = body + '.' + Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+
+        assertNull(helper.verify(expired));
+        // 登出时只校验签名
+        assertNotNull(helper.parse(expired));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void deniedTokenIsRejected() {
+        SignedTokenHelper.TokenInfo issued = helper.issue(user());
+        Map<String, Long> denied = (Map<String, Long>) ReflectionTestUtils.getField(tokenDenylist, "denied");
+        denied.put(issued.getJti(), issued.getExpireAt());
+
+        assertNull(helper.verify(issued.getToken()));
+        assertNotNull(helper.verify(helper.issue(user()).getToken()));
+    }
+
+    @Test
+    void redisModeAcceptsNoSignedToken() {
+        String token = helper.issue(user()).getToken();
+        SignedTokenHelper redisMode = newHelper(SignedTokenHelper.MODE_REDIS, SECRET);
+
+        assertFalse(redisMode.isSignedMode());
+        assertNull(redisMode.verify(token));
+        assertNull(redisMode.parse("a.b"));
+        assertThrows(IllegalStateException.class, () -> redisMode.issue(user()));
+    }
+
+    @Test
+    void unsafeSecretIsRefused() {
+        assertThrows(IllegalStateException.class, () -> newHelper(SignedTokenHelper.MODE_SIGNED, ""));
+        assertThrows(IllegalStateException.class, () -> newHelper(SignedTokenHelper.MODE_SIGNED, "short-secret"));
+        assertThrows(IllegalStateException.class,
+                () -> newHelper(SignedTokenHelper.MODE_SIGNED, "hmdp-dev-session-secret-change-me"));
+    }
+}
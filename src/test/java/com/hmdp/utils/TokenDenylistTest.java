@@ -0,0 +1,75 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_DENYLIST_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class TokenDenylistTest {
+
+    private ZSetOperations<String, String> zSetOps;
+    private TokenDenylist tokenDenylist;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        zSetOps = mock(ZSetOperations.class);
+        when(stringRedisTemplate.opsForZSet()).thenReturn(zSetOps);
+        tokenDenylist = new TokenDenylist();
+        ReflectionTestUtils.setField(tokenDenylist, "mode", SignedTokenHelper.MODE_SIGNED);
+        ReflectionTestUtils.setField(tokenDenylist, "stringRedisTemplate", stringRedisTemplate);
+    }
+
+    private void redisHolds(Set<ZSetOperations.TypedTuple<String>> tuples) {
+        when(zSetOps.rangeByScoreWithScores(eq(LOGIN_DENYLIST_KEY), anyDouble(), anyDouble())).thenReturn(tuples);
+    }
+
+    @Test
+    void reloadPicksUpRevocationsWhoseBroadcastWasLost() {
+        long expireAt = System.currentTimeMillis() + 60_000L;
+        redisHolds(Collections.singleton(new DefaultTypedTuple<>("lost", (double) expireAt)));
+        assertFalse(tokenDenylist.isDenied("lost"));
+
+        tokenDenylist.reload();
+
+        assertTrue(tokenDenylist.isDenied("lost"));
+        verify(zSetOps).removeRangeByScore(eq(LOGIN_DENYLIST_KEY), eq(0.0), anyDouble());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reloadDropsExpiredAndKeepsNewerLocalEntries() {
+        long now = System.currentTimeMillis();
+        Map<String, Long> denied = (Map<String, Long>) ReflectionTestUtils.getField(tokenDenylist, "denied");
+        denied.put("expired", now - 1);
+        denied.put("broadcast", now + 60_000L);
+        redisHolds(new HashSet<>());
+
+        tokenDenylist.reload();
+
+        assertFalse(tokenDenylist.isDenied("expired"));
+        assertTrue(tokenDenylist.isDenied("broadcast"));
+    }
+
+    @Test
+    void redisModeNeverTouchesRedis() {
+        ReflectionTestUtils.setField(tokenDenylist, "mode", SignedTokenHelper.MODE_REDIS);
+
+        tokenDenylist.reload();
+
+        verifyNoInteractions(zSetOps);
+    }
+}
@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VoucherOrderShardsTest {
+
+    private static VoucherOrderShards shards(int count) {
+        VoucherOrderShards shards = new VoucherOrderShards();
+        ReflectionTestUtils.setField(shards, "shards", count);
+        ReflectionTestUtils.invokeMethod(shards, "init");
+        return shards;
+    }
+
+    @Test
+    void shardOfUser() {
+        VoucherOrderShards shards = shards(4);
+
+        assertEquals(0, shards.shardOfUser(0L));
+        assertEquals(1, shards.shardOfUser(1L));
+        assertEquals(3, shards.shardOfUser(1011L));
+    }
+
+    @Test
+    void shardOfNegativeUserIsInRange() {
+        VoucherOrderShards shards = shards(4);
+
+        assertEquals(3, shards.shardOfUser(-1L));
+        assertEquals(0, shards.shardOfUser(-4L));
+        assertEquals(2, shards.shardOfUser(-6L));
+        int shard = shards.shardOfUser(Long.MIN_VALUE);
+        assertTrue(shard >= 0 && shard < 4);
+    }
+
+    @Test
+    void shardCountOutOfRangeIsRefused() {
+        assertThrows(IllegalStateException.class, () -> shards(0));
+        assertThrows(IllegalStateException.class, () -> shards(RedisIdWorker.MAX_SHARDS + 1));
+        assertEquals(RedisIdWorker.MAX_SHARDS, shards(RedisIdWorker.MAX_SHARDS).getShards());
+    }
+
+    @Test
+    void currentTableFollowsNestedCalls() {
+        assertThrows(IllegalStateException.class, VoucherOrderShards::currentTable);
+
+        String tables = VoucherOrderShards.call(1, () -> {
+            String inner = VoucherOrderShards.call(2, VoucherOrderShards::currentTable);
+            return inner + "," + VoucherOrderShards.currentTable();
+        });
+
+        assertEquals("tb_voucher_order_2,tb_voucher_order_1", tables);
+        assertThrows(IllegalStateException.class, VoucherOrderShards::currentTable);
+    }
+
+    @Test
+    void orderIdCarriesShard() {
+        long orderId = ReflectionTestUtils.invokeMethod(RedisIdWorker.class, "withShard", 12345L << 32 | 7, 3);
+        assertEquals(3, VoucherOrderShards.shardOfOrder(orderId));
+    }
+}